@@ -0,0 +1,110 @@
+package geda.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+// Consultas e atualizações do PathControl com o catálogo já carregado com N entradas, e a
+// conferência que roda antes de sobrescrever uma cópia (DestinationIndex + geração de snapshot).
+// As primeiras REAL_FILES entradas existem no destino e já foram preservadas na geração atual;
+// o resto são caminhos sintéticos em 1000 pastas.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+
+    private static final int REAL_FILES = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int entries;
+
+    private Path directory;
+    private Object catalog;
+    private Path[] realDestinations;
+    private Path[] sources;
+    private Path[] destinations;
+    private int next;
+
+    private MethodHandle preserveVersion;
+    private MethodHandle addSourcePathControlArquive;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("geda-catalog");
+        Path sourceRoot = directory.resolve("source");
+        Path destinationRoot = directory.resolve("backup").resolve("source");
+
+        Path destinationBase = directory.resolve("backup");
+        Object destinationIndex = GedaAccess.construct("DestinationIndex", new Class<?>[]{Path.class}, destinationBase);
+        MethodHandle indexUpdate = GedaAccess.method("DestinationIndex", "update", void.class, Path.class, long.class);
+
+        catalog = GedaAccess.invokeStatic("PathControlCatalog", "load", new Class<?>[]{Path.class}, directory.resolve("PathControl.bin"));
+        MethodHandle put = GedaAccess.method("PathControlCatalog", "put", void.class, Path.class, Path.class, Instant.class);
+
+        realDestinations = new Path[REAL_FILES];
+        sources = new Path[entries];
+        destinations = new Path[entries];
+        Instant timestamp = Instant.now();
+        for (int i = 0; i < entries; i++) {
+            Path relative = Path.of("d" + (i % 1000), "file" + i + ".dat");
+            sources[i] = sourceRoot.resolve(relative);
+            destinations[i] = destinationRoot.resolve(relative);
+            if (i < REAL_FILES) {
+                Files.createDirectories(destinations[i].getParent());
+                Files.writeString(destinations[i], "geda");
+                realDestinations[i] = destinations[i];
+            }
+            put.invoke(catalog, sources[i], destinations[i], timestamp);
+            indexUpdate.invoke(destinationIndex, destinations[i], timestamp.toEpochMilli());
+        }
+
+        GedaAccess.setMainField("pathControlCatalog", catalog);
+        GedaAccess.setMainField("destinationIndex", destinationIndex);
+        GedaAccess.setMainField("snapshotManager", GedaAccess.invokeStatic("SnapshotManager", "open",
+                new Class<?>[]{Path.class, long.class, int.class, int.class, int.class},
+                destinationBase, TimeUnit.DAYS.toMillis(1), 30, 8, 12));
+        preserveVersion = GedaAccess.mainMethod("preserveVersion", void.class, Path.class, boolean.class);
+        for (Path destination : realDestinations) {
+            preserveVersion.invoke(destination, false); // o primeiro cria o link na geração
+        }
+        addSourcePathControlArquive = GedaAccess.mainMethod("addSourcePathControlArquive", void.class, Path.class, Path.class, Instant.class, long.class);
+    }
+
+    // Arquivo sobrescrito de novo na mesma geração: só as consultas no índice, sem I/O
+    @Benchmark
+    public void preserveVersion() throws Throwable {
+        preserveVersion.invoke(realDestinations[next++ & (REAL_FILES - 1)], false);
+    }
+
+    // Entrada existente: só a data é atualizada
+    @Benchmark
+    public void addSourcePathControlArquive() throws Throwable {
+        int index = (int) ((next++ * 0x9E3779B1L) % entries);
+        addSourcePathControlArquive.invoke(sources[index], destinations[index], Instant.now(), (long) index);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        GedaAccess.method("PathControlCatalog", "close", void.class).invoke(catalog);
+        GedaAccess.deleteTree(directory);
+    }
+}
@@ -0,0 +1,84 @@
+package geda.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Main.transferFile por tamanho de arquivo.
+// maxBytesPerSecond=0 usa a cópia do sistema (Files.copy); com limite a cópia vai em blocos de
+// chunkSize pagos no BandwidthGovernor, então o limite alto mede o custo dos blocos e não a espera.
+// integrity=true calcula o CRC32C na mesma leitura (sem leitura de volta), o que troca a cópia
+// do sistema por blocos num buffer direto.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({"4096", "1048576", "67108864"})
+    public int fileSize;
+
+    @Param({"65536", "1048576"})
+    public int chunkSize;
+
+    @Param({"0", "1073741824"})
+    public long maxBytesPerSecond;
+
+    @Param({"false", "true"})
+    public boolean integrity;
+
+    private Path directory;
+    private Path source;
+    private Path destination;
+    private MethodHandle transferFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("geda-copy");
+        source = directory.resolve("source.bin");
+        destination = directory.resolve("backup").resolve("source.bin");
+        Files.createDirectories(destination.getParent());
+
+        byte[] data = new byte[fileSize];
+        new Random(42).nextBytes(data);
+        Files.write(source, data);
+
+        GedaAccess.setMainField("baseDestinationPath", directory.resolve("backup").toString());
+        GedaAccess.setMainField("transferEngine", GedaAccess.transferEngine(maxBytesPerSecond, chunkSize));
+        GedaAccess.setMainField("destinationIndex", GedaAccess.construct("DestinationIndex",
+                new Class<?>[]{Path.class}, directory.resolve("backup")));
+
+        GedaAccess.setMainField("integrityVerifier", GedaAccess.construct("IntegrityVerifier",
+                new Class<?>[]{boolean.class, double.class}, integrity, 0.0));
+
+        transferFile = GedaAccess.mainMethod("transferFile", long.class, Path.class, Path.class);
+    }
+
+    @Benchmark
+    public long transferFile() throws Throwable {
+        return (long) transferFile.invoke(source, destination);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GedaAccess.deleteTree(directory);
+    }
+}
@@ -0,0 +1,128 @@
+package geda.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Vazão do tratamento de eventos do watcher numa rajada: cada operação grava stormSize arquivos
+// numa pasta observada e passa as chaves do WatchService (poll) pelo Main.handleWatchKey até todos
+// os eventos chegarem ao EventCoalescer. O monitorEvents de verdade fica bloqueado no take(),
+// então não serve para medir aqui.
+// O coalescer usa uma janela longa para nada ser copiado durante a medição.
+// O contador "events" dá os eventos por segundo.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventStormBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int stormSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class EventCounters {
+        public long events;
+    }
+
+    private static final long STORM_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private Path directory;
+    private Path[] files;
+    private byte[] payload;
+    private Object watcherManager;
+    private WatchService watchService;
+    private Object eventCoalescer;
+    private Object catalog;
+
+    private MethodHandle handleWatchKey;
+    private MethodHandle receivedEvents;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Throwable {
+        directory = Files.createTempDirectory("geda-events");
+        Path sourceRoot = directory.resolve("source");
+        Files.createDirectories(sourceRoot);
+
+        files = new Path[stormSize];
+        payload = new byte[128];
+        for (int i = 0; i < stormSize; i++) {
+            files[i] = sourceRoot.resolve("file" + i + ".txt");
+            Files.write(files[i], payload);
+        }
+
+        // Regras padrão do BackupFilters.txt, as mesmas que o Main usa quando o arquivo é criado
+        Object pathFilter = GedaAccess.invokeStatic("PathFilter", "parse", new Class<?>[]{List.class, List.class},
+                GedaAccess.type("PathFilter").getField("DEFAULT_RULES").get(null), List.of(sourceRoot.toString()));
+        watchService = FileSystems.getDefault().newWatchService();
+        watcherManager = GedaAccess.construct("WatcherManager", new Class<?>[]{WatchService.class, GedaAccess.type("PathFilter")},
+                watchService, pathFilter);
+        GedaAccess.method("WatcherManager", "registerTree", void.class, Path.class).invoke(watcherManager, sourceRoot);
+
+        eventCoalescer = GedaAccess.construct("EventCoalescer",
+                new Class<?>[]{long.class, GedaAccess.type("EventCoalescer$Sink")},
+                TimeUnit.HOURS.toMillis(1), GedaAccess.noOp("EventCoalescer$Sink"));
+        catalog = GedaAccess.invokeStatic("PathControlCatalog", "load", new Class<?>[]{Path.class}, directory.resolve("PathControl.bin"));
+
+        List<String> sourcePaths = (List<String>) GedaAccess.getMainField("sourcePaths");
+        sourcePaths.clear();
+        sourcePaths.add(sourceRoot.toString());
+        GedaAccess.setMainField("watcherManager", watcherManager);
+        GedaAccess.setMainField("pathFilter", pathFilter);
+        GedaAccess.setMainField("eventCoalescer", eventCoalescer);
+        GedaAccess.setMainField("pathControlCatalog", catalog);
+
+        handleWatchKey = GedaAccess.mainMethod("handleWatchKey", void.class, WatchKey.class);
+        receivedEvents = GedaAccess.method("EventCoalescer", "receivedEvents", long.class);
+    }
+
+    @Benchmark
+    public void handleWatchKeys(EventCounters counters) throws Throwable {
+        long before = (long) receivedEvents.invoke(eventCoalescer);
+        for (Path file : files) {
+            Files.write(file, payload);
+        }
+
+        long deadline = System.nanoTime() + STORM_TIMEOUT_NANOS;
+        long received = 0;
+        while (received < stormSize && System.nanoTime() < deadline) {
+            WatchKey key;
+            while ((key = watchService.poll()) != null) {
+                handleWatchKey.invoke(key);
+            }
+            received = (long) receivedEvents.invoke(eventCoalescer) - before;
+        }
+        counters.events += received;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Throwable {
+        GedaAccess.method("EventCoalescer", "shutdown", void.class).invoke(eventCoalescer);
+        GedaAccess.method("WatcherManager", "shutdown", void.class).invoke(watcherManager);
+        GedaAccess.method("PathControlCatalog", "close", void.class).invoke(catalog);
+        GedaAccess.deleteTree(directory);
+    }
+}
@@ -0,0 +1,89 @@
+package geda.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// As classes do sGEDA ficam no pacote padrão, que não pode ser importado de um pacote nomeado
+// (e o JMH não aceita benchmarks no pacote padrão). Os benchmarks chegam nelas por aqui:
+// method handles para os métodos e reflexão para montar o estado estático do Main.
+final class GedaAccess {
+
+    private GedaAccess() {
+    }
+
+    static Class<?> type(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("sGEDA class not found: " + className, e);
+        }
+    }
+
+    static MethodHandles.Lookup lookup(String className) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(type(className), MethodHandles.lookup());
+    }
+
+    static MethodHandle mainMethod(String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return lookup("Main").findStatic(type("Main"), name, MethodType.methodType(returnType, parameterTypes));
+    }
+
+    static MethodHandle method(String className, String name, Class<?> returnType, Class<?>... parameterTypes) throws ReflectiveOperationException {
+        return lookup(className).findVirtual(type(className), name, MethodType.methodType(returnType, parameterTypes));
+    }
+
+    static Object construct(String className, Class<?>[] parameterTypes, Object... args) throws ReflectiveOperationException {
+        var constructor = type(className).getDeclaredConstructor(parameterTypes);
+        constructor.setAccessible(true);
+        return constructor.newInstance(args);
+    }
+
+    static Object invokeStatic(String className, String name, Class<?>[] parameterTypes, Object... args) throws ReflectiveOperationException {
+        var method = type(className).getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method.invoke(null, args);
+    }
+
+    static Object getMainField(String name) throws ReflectiveOperationException {
+        Field field = type("Main").getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(null);
+    }
+
+    static void setMainField(String name, Object value) throws ReflectiveOperationException {
+        Field field = type("Main").getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    // Implementa uma interface do sGEDA (ex: EventCoalescer$Sink) com um corpo vazio
+    static Object noOp(String interfaceName) {
+        Class<?> type = type(interfaceName);
+        return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> null);
+    }
+
+    // Mesmo limite de banda da configuração, sem horário comercial
+    static Object transferEngine(long maxBytesPerSecond, int chunkSize) throws ReflectiveOperationException {
+        Object governor = construct("BandwidthGovernor",
+                new Class<?>[]{long.class, long.class, int.class, int.class, long.class},
+                maxBytesPerSecond, maxBytesPerSecond, 8, 18, 100L);
+        return construct("TransferEngine", new Class<?>[]{type("BandwidthGovernor"), int.class}, governor, chunkSize);
+    }
+
+    static void deleteTree(Path root) {
+        if (root == null || Files.notExists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (Exception e) {
+            System.err.println("Could not delete " + root + " " + e);
+        }
+    }
+}
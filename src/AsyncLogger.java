@@ -0,0 +1,274 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+// Log assíncrono: quem chama o addLog só coloca a mensagem num ring buffer sem lock
+// (várias threads produzem, uma thread consome) e volta. A thread "log-writer" junta as
+// mensagens em lotes e grava no Log.txt com um único writer aberto.
+// O Log.txt é rotacionado quando muda o dia ou passa de maxBytes: o atual vira
+// Log-yyyy-MM-dd.N.txt e só os maxFiles mais recentes são mantidos.
+public class AsyncLogger {
+
+    public enum Level {
+        DEBUG, INFO, ERROR
+    }
+
+    private record LogEntry(long timeMillis, String message) {
+    }
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int MASK = CAPACITY - 1;
+    private static final int BATCH_SIZE = 1024;
+    private static final DateTimeFormatter LINE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
+
+    private final Path arquivePath;
+    private final AtomicReferenceArray<LogEntry> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private Thread writerThread;
+    private Thread shutdownHook;
+    private volatile boolean writerSleeping = false;
+    private volatile boolean closed = false;
+
+    private volatile Level minimumLevel = Level.INFO;
+    private volatile long maxBytes = 10L * 1024 * 1024;
+    private volatile int maxFiles = 30;
+
+    // Estado usado só pela thread log-writer
+    private BufferedWriter writer;
+    private long currentBytes;
+    private LocalDate currentDay;
+    private long cachedSecond = -1;
+    private String cachedTimestamp;
+    private LocalDate cachedDay;
+
+    private AsyncLogger(Path arquivePath) {
+        this.arquivePath = arquivePath;
+    }
+
+    // A thread e o shutdown hook só recebem o logger depois de construído
+    public static AsyncLogger open(Path arquivePath) {
+        AsyncLogger logger = new AsyncLogger(arquivePath);
+        logger.writerThread = new Thread(logger::writeLoop, "log-writer");
+        logger.writerThread.setDaemon(true);
+        logger.writerThread.start();
+        logger.shutdownHook = new Thread(logger::close, "log-flush");
+        Runtime.getRuntime().addShutdownHook(logger.shutdownHook);
+        return logger;
+    }
+
+    // Para quem fecha o log no próprio shutdown: os hooks rodam em paralelo e o nosso
+    // fecharia o arquivo antes das últimas mensagens
+    public void detachShutdownHook() {
+        Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    }
+
+    public void configure(Level minimumLevel, long maxBytes, int maxFiles) {
+        this.minimumLevel = minimumLevel;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    // O nível vem do prefixo que o projeto já usa nas mensagens ("Error: ...", "Info: ...")
+    public static Level levelOf(String message) {
+        if (message.startsWith("Error") || message.startsWith("Erro")) {
+            return Level.ERROR;
+        }
+        if (message.startsWith("Debug")) {
+            return Level.DEBUG;
+        }
+        return Level.INFO;
+    }
+
+    // Depois do close a mensagem é descartada: o writer já terminou e ninguém esvaziaria o buffer
+    public void log(String message) {
+        if (closed || levelOf(message).ordinal() < minimumLevel.ordinal()) {
+            return;
+        }
+
+        LogEntry entry = new LogEntry(System.currentTimeMillis(), message);
+        while (true) {
+            if (closed) {
+                return;
+            }
+            long claimed = tail.get();
+            if (claimed - head.get() >= CAPACITY) {
+                // Buffer cheio: espera o writer abrir espaço em vez de perder a mensagem
+                wakeWriter();
+                Thread.onSpinWait();
+                continue;
+            }
+            if (tail.compareAndSet(claimed, claimed + 1)) {
+                slots.set((int) (claimed & MASK), entry);
+                break;
+            }
+        }
+
+        if (writerSleeping) {
+            wakeWriter();
+        }
+    }
+
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        wakeWriter();
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wakeWriter() {
+        LockSupport.unpark(writerThread);
+    }
+
+    private void writeLoop() {
+        List<LogEntry> batch = new ArrayList<>(BATCH_SIZE);
+
+        while (true) {
+            drain(batch);
+
+            if (batch.isEmpty()) {
+                if (closed && head.get() == tail.get()) {
+                    closeWriter();
+                    return;
+                }
+                writerSleeping = true;
+                if (head.get() == tail.get() && !closed) {
+                    LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+                writerSleeping = false;
+                continue;
+            }
+
+            try {
+                for (LogEntry entry : batch) {
+                    write(entry);
+                }
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("Erro no add log " + e);
+                closeWriter();
+            }
+            batch.clear();
+        }
+    }
+
+    private void drain(List<LogEntry> batch) {
+        long position = head.get();
+        while (batch.size() < BATCH_SIZE && position < tail.get()) {
+            int index = (int) (position & MASK);
+            LogEntry entry = slots.get(index);
+            if (entry == null) {
+                break; // posição reservada mas a mensagem ainda não foi publicada
+            }
+            slots.set(index, null);
+            batch.add(entry);
+            position++;
+            head.set(position);
+        }
+    }
+
+    private void write(LogEntry entry) throws IOException {
+        // A data formatada só muda uma vez por segundo
+        long second = entry.timeMillis() / 1000;
+        if (second != cachedSecond) {
+            LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.timeMillis()), ZoneId.systemDefault());
+            cachedSecond = second;
+            cachedTimestamp = time.format(LINE_FORMAT);
+            cachedDay = time.toLocalDate();
+        }
+        String line = cachedTimestamp + " - " + entry.message() + System.lineSeparator();
+
+        if (writer == null) {
+            openWriter();
+        }
+        if (!cachedDay.equals(currentDay) || currentBytes + line.length() > maxBytes) {
+            rotate();
+        }
+
+        writer.write(line);
+        currentBytes += line.length();
+    }
+
+    private void openWriter() throws IOException {
+        if (Files.exists(arquivePath)) {
+            currentBytes = Files.size(arquivePath);
+            currentDay = LocalDateTime.ofInstant(Files.getLastModifiedTime(arquivePath).toInstant(), ZoneId.systemDefault()).toLocalDate();
+        } else {
+            currentBytes = 0;
+            currentDay = LocalDate.now();
+        }
+        writer = Files.newBufferedWriter(arquivePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate() throws IOException {
+        writer.close();
+
+        if (currentBytes > 0) {
+            String baseName = "Log-" + currentDay + ".";
+            int sequence = 1;
+            Path rotated;
+            do {
+                rotated = arquivePath.resolveSibling(baseName + sequence++ + ".txt");
+            } while (Files.exists(rotated));
+            Files.move(arquivePath, rotated);
+            deleteOldRotations();
+        }
+
+        currentBytes = 0;
+        currentDay = cachedDay;
+        writer = Files.newBufferedWriter(arquivePath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void deleteOldRotations() throws IOException {
+        Path directory = arquivePath.toAbsolutePath().getParent();
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> rotations = files
+                    .filter(path -> path.getFileName().toString().matches("Log-\\d{4}-\\d{2}-\\d{2}\\.\\d+\\.txt"))
+                    .sorted((a, b) -> Long.compare(lastModified(b), lastModified(a)))
+                    .toList();
+            for (int i = maxFiles; i < rotations.size(); i++) {
+                Files.deleteIfExists(rotations.get(i));
+            }
+        }
+    }
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void closeWriter() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Erro no add log " + e);
+        }
+        writer = null;
+    }
+}
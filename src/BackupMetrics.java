@@ -0,0 +1,233 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.ObjectName;
+
+// Métricas do backup: contadores (LongAdder, sem disputa entre os workers), histogramas
+// de latência e gauges lidos na hora (fila de eventos, fila de cópia, catálogo, ...).
+// Publicadas no JMX (geda:type=BackupMetrics) e em texto do Prometheus em
+// http://127.0.0.1:<metrics.httpPort>/metrics.
+public class BackupMetrics implements BackupMetricsMXBean {
+
+    private static final long RATE_SAMPLE_SECONDS = 5;
+
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder filesCopied = new LongAdder();
+    private final LongAdder copyFailures = new LongAdder();
+    private final LongAdder verifiedFiles = new LongAdder();
+    private final LongAdder verifyFailures = new LongAdder();
+    private final LatencyHistogram eventToBackupMillis = new LatencyHistogram();
+    private final LatencyHistogram copyMillis = new LatencyHistogram();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private record Gauge(String help, LongSupplier supplier) {
+    }
+
+    // Taxas calculadas a cada RATE_SAMPLE_SECONDS pela thread de amostragem
+    private volatile long bytesPerSecond;
+    private volatile long filesPerSecond;
+    private long lastBytes;
+    private long lastFiles;
+    private long lastSampleNanos = System.nanoTime();
+
+    private ScheduledExecutorService sampler;
+    private HttpServer httpServer;
+
+    public void recordCopy(long bytes, long elapsedNanos) {
+        bytesCopied.add(bytes);
+        filesCopied.increment();
+        copyMillis.record(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+    }
+
+    public void recordCopyFailure() {
+        copyFailures.increment();
+    }
+
+    // Cópias lidas de volta do destino e comparadas pelo checksum
+    public void recordVerification(boolean matches) {
+        verifiedFiles.increment();
+        if (!matches) {
+            verifyFailures.increment();
+        }
+    }
+
+    // Do primeiro evento do arquivo até o fim da cópia (inclui a janela do EventCoalescer e a fila)
+    public void recordEventToBackup(long firstEventMillis) {
+        eventToBackupMillis.record(System.currentTimeMillis() - firstEventMillis);
+    }
+
+    // Nome no formato do Prometheus, ex: geda_pending_events
+    public void registerGauge(String name, String help, LongSupplier supplier) {
+        gauges.put(name, new Gauge(help, supplier));
+    }
+
+    // httpPort 0 não abre o endpoint HTTP
+    public void start(boolean jmx, int httpPort) {
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(this::sampleRates, RATE_SAMPLE_SECONDS, RATE_SAMPLE_SECONDS, TimeUnit.SECONDS);
+
+        if (jmx) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("geda:type=BackupMetrics"));
+            } catch (Exception e) {
+                Main.addLog("Error: metrics jmx " + e);
+            }
+        }
+
+        if (httpPort > 0) {
+            try {
+                // Só local: quem precisar de acesso remoto coloca um proxy ou o agente do Prometheus na máquina
+                httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), httpPort), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream output = exchange.getResponseBody()) {
+                        output.write(body);
+                    }
+                });
+                httpServer.start();
+                Main.addLog("Info: metrics on http://127.0.0.1:" + httpPort + "/metrics");
+            } catch (IOException e) {
+                Main.addLog("Error: metrics http " + e);
+            }
+        }
+    }
+
+    public void shutdown() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    public String prometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        counter(out, "geda_copied_bytes_total", "Bytes copied to the destination", bytesCopied.sum());
+        counter(out, "geda_copied_files_total", "Files copied to the destination", filesCopied.sum());
+        counter(out, "geda_copy_failures_total", "Copies that failed", copyFailures.sum());
+        counter(out, "geda_verified_files_total", "Copies read back from the destination and checksummed", verifiedFiles.sum());
+        counter(out, "geda_verify_failures_total", "Read-back checksums that did not match the source", verifyFailures.sum());
+        gauge(out, "geda_copied_bytes_per_second", "Copy throughput over the last sample", bytesPerSecond);
+        gauge(out, "geda_copied_files_per_second", "Files copied per second over the last sample", filesPerSecond);
+        eventToBackupMillis.writePrometheus(out, "geda_event_to_backup_milliseconds", "Time from the first file event to the end of its copy");
+        copyMillis.writePrometheus(out, "geda_copy_milliseconds", "Time spent copying one file");
+
+        for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+            gauge(out, gauge.getKey(), gauges.get(gauge.getKey()).help(), gauge.getValue());
+        }
+        return out.toString();
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private void sampleRates() {
+        long now = System.nanoTime();
+        long bytes = bytesCopied.sum();
+        long files = filesCopied.sum();
+        double seconds = Math.max(0.001, (now - lastSampleNanos) / 1_000_000_000.0);
+
+        bytesPerSecond = (long) ((bytes - lastBytes) / seconds);
+        filesPerSecond = (long) ((files - lastFiles) / seconds);
+        lastBytes = bytes;
+        lastFiles = files;
+        lastSampleNanos = now;
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public long getFilesCopied() {
+        return filesCopied.sum();
+    }
+
+    @Override
+    public long getCopyFailures() {
+        return copyFailures.sum();
+    }
+
+    @Override
+    public long getVerifiedFiles() {
+        return verifiedFiles.sum();
+    }
+
+    @Override
+    public long getVerifyFailures() {
+        return verifyFailures.sum();
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public long getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    @Override
+    public long getEventToBackupMillisP50() {
+        return eventToBackupMillis.percentile(50);
+    }
+
+    @Override
+    public long getEventToBackupMillisP99() {
+        return eventToBackupMillis.percentile(99);
+    }
+
+    @Override
+    public long getCopyMillisP50() {
+        return copyMillis.percentile(50);
+    }
+
+    @Override
+    public long getCopyMillisP99() {
+        return copyMillis.percentile(99);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Gauge> gauge : gauges.entrySet()) {
+            try {
+                values.put(gauge.getKey(), gauge.getValue().supplier().getAsLong());
+            } catch (RuntimeException e) {
+                values.put(gauge.getKey(), -1L);
+            }
+        }
+        return values;
+    }
+}
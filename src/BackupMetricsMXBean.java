@@ -0,0 +1,30 @@
+// Atributos do BackupMetrics publicados no JMX (geda:type=BackupMetrics).
+// MXBean para o mapa de gauges virar TabularData (tipo aberto), que o jconsole, o VisualVM
+// e o jmx_exporter conseguem ler; num MBean comum um Map chega como objeto opaco.
+public interface BackupMetricsMXBean {
+
+    long getBytesCopied();
+
+    long getFilesCopied();
+
+    long getCopyFailures();
+
+    long getVerifiedFiles();
+
+    long getVerifyFailures();
+
+    long getBytesPerSecond();
+
+    long getFilesPerSecond();
+
+    long getEventToBackupMillisP50();
+
+    long getEventToBackupMillisP99();
+
+    long getCopyMillisP50();
+
+    long getCopyMillisP99();
+
+    // Gauges registrados pelo Main (eventos pendentes, fila de cópia, tamanho do catálogo, ...)
+    java.util.Map<String, Long> getGauges();
+}
@@ -0,0 +1,113 @@
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+
+// Token bucket global: todas as cópias tiram bytes do mesmo balde, então N cópias
+// simultâneas continuam somando no máximo o limite configurado.
+// O limite muda entre horário comercial (seg-sex, businessHoursStart até businessHoursEnd)
+// e fora dele. Limite 0 = sem limite.
+public class BandwidthGovernor {
+
+    private final long businessHoursBytesPerSecond;
+    private final long offHoursBytesPerSecond;
+    private final int businessHoursStart;
+    private final int businessHoursEnd;
+    private final long burstMillis;
+
+    // Estado do balde
+    private double storedBytes = 0;
+    private long nextFreeNanos = System.nanoTime();
+    private long lastRate = -1;
+
+    // Taxa medida, calculada em janelas de 1 segundo
+    private long windowStartNanos = System.nanoTime();
+    private long windowBytes = 0;
+    private long measuredBytesPerSecond = 0;
+
+    public BandwidthGovernor(long businessHoursBytesPerSecond, long offHoursBytesPerSecond,
+                             int businessHoursStart, int businessHoursEnd, long burstMillis) {
+        this.businessHoursBytesPerSecond = businessHoursBytesPerSecond;
+        this.offHoursBytesPerSecond = offHoursBytesPerSecond;
+        this.businessHoursStart = businessHoursStart;
+        this.businessHoursEnd = businessHoursEnd;
+        this.burstMillis = burstMillis;
+    }
+
+    // Bloqueia até que os bytes possam ser enviados sem passar do limite atual
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    public boolean isUnlimited() {
+        return currentRate() <= 0;
+    }
+
+    public long currentRate() {
+        LocalDateTime now = LocalDateTime.now();
+        boolean weekday = now.getDayOfWeek() != DayOfWeek.SATURDAY && now.getDayOfWeek() != DayOfWeek.SUNDAY;
+        boolean businessHours = weekday && now.getHour() >= businessHoursStart && now.getHour() < businessHoursEnd;
+        return businessHours ? businessHoursBytesPerSecond : offHoursBytesPerSecond;
+    }
+
+    public synchronized long measuredRate() {
+        if (System.nanoTime() - windowStartNanos > 2_000_000_000L) {
+            return 0; // nada transferido no último segundo
+        }
+        return measuredBytesPerSecond;
+    }
+
+    // Só conta na taxa medida, para cópias que não passam pelo balde (sem limite)
+    public synchronized void record(long bytes) {
+        measure(System.nanoTime(), bytes);
+    }
+
+    // Reserva os bytes e devolve quanto tempo quem pediu precisa esperar.
+    // Bytes guardados (até burstMillis de tráfego) saem na hora; o resto empurra o próximo horário livre.
+    private long reserve(long bytes) {
+        return reserve(bytes, System.nanoTime());
+    }
+
+    // now vem de fora para os testes simularem o tempo parado sem esperar
+    synchronized long reserve(long bytes, long now) {
+        measure(now, bytes);
+
+        long rate = currentRate();
+        if (rate != lastRate) {
+            Main.addLog("Info: bandwidth limit " + (rate <= 0 ? "unlimited" : rate + " bytes/s"));
+            lastRate = rate;
+            storedBytes = 0;
+            nextFreeNanos = now;
+        }
+        if (rate <= 0) {
+            return 0;
+        }
+
+        double maxStoredBytes = rate * burstMillis / 1000.0;
+        if (now > nextFreeNanos) {
+            // Em double e com o tempo parado limitado ao burst: em long a conta estoura depois de alguns minutos ocioso
+            double idleSeconds = Math.min(now - nextFreeNanos, burstMillis * 1_000_000L) / 1_000_000_000.0;
+            storedBytes = Math.min(maxStoredBytes, storedBytes + idleSeconds * rate);
+            nextFreeNanos = now;
+        }
+
+        double fromStored = Math.min(bytes, storedBytes);
+        double fresh = bytes - fromStored;
+        storedBytes -= fromStored;
+
+        long waitNanos = nextFreeNanos - now;
+        nextFreeNanos += (long) (fresh * 1_000_000_000.0 / rate);
+        return Math.max(0, waitNanos);
+    }
+
+    private void measure(long now, long bytes) {
+        long elapsed = now - windowStartNanos;
+        if (elapsed >= 1_000_000_000L) {
+            measuredBytesPerSecond = (long) (windowBytes * 1_000_000_000.0 / elapsed);
+            windowStartNanos = now;
+            windowBytes = 0;
+        }
+        windowBytes += bytes;
+    }
+}
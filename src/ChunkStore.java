@@ -0,0 +1,199 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.Checksum;
+
+// Formato de destino com deduplicação (destination.format=chunked).
+// Cada arquivo é cortado em pedaços definidos pelo conteúdo (gear hash, como no FastCDC),
+// cada pedaço é guardado uma única vez em .chunks\<2 primeiros hex>\<sha-256> e o arquivo
+// no destino vira um manifesto "<arquivo>.gedachunks" com a lista de pedaços.
+// Cópias quase iguais só gravam os pedaços que mudaram.
+public class ChunkStore {
+
+    static final String MANIFEST_SUFFIX = ".gedachunks";
+
+    private static final String MANIFEST_HEADER = "GEDACHUNKS 1";
+    private static final int MIN_CHUNK = 16 * 1024;
+    private static final int MAX_CHUNK = 256 * 1024;
+    private static final long CHUNK_MASK = (1L << 16) - 1; // média de ~64 KB
+    private static final int KNOWN_CHUNKS_CACHE = 64 * 1024; // ~4 GB de pedaços, poucos MB de memória
+
+    // Tabela fixa: a mesma semente gera sempre os mesmos cortes entre execuções
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6765646143444CL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final Path chunksRoot;
+    private final BandwidthGovernor governor;
+    // Pedaços vistos recentemente (LRU), para não perguntar ao compartilhamento pelos repetidos.
+    // Quem saiu do cache cai no Files.exists, então o limite só custa um stat a mais.
+    private final Set<String> knownChunks = Collections.newSetFromMap(Collections.synchronizedMap(
+            new LinkedHashMap<String, Boolean>(1024, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > KNOWN_CHUNKS_CACHE;
+                }
+            }));
+
+    public ChunkStore(Path chunksRoot, BandwidthGovernor governor) {
+        this.chunksRoot = chunksRoot;
+        this.governor = governor;
+    }
+
+    public static Path manifestPathFor(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + MANIFEST_SUFFIX);
+    }
+
+    // Grava os pedaços novos e o manifesto. Devolve quantos bytes de pedaços novos foram escritos.
+    // checksum (opcional) recebe o conteúdo da origem na mesma leitura
+    public long store(Path source, Path destination, Checksum checksum) throws IOException, InterruptedException {
+        MessageDigest digest = newDigest();
+        HexFormat hex = HexFormat.of();
+        byte[] chunk = new byte[MAX_CHUNK];
+        long written = 0;
+        long fileLength = 0;
+
+        Path manifest = manifestPathFor(destination);
+        Path temporaryManifest = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+
+        try (InputStream in = Files.newInputStream(source);
+             BufferedWriter out = Files.newBufferedWriter(temporaryManifest, StandardCharsets.UTF_8)) {
+
+            out.write(MANIFEST_HEADER);
+            out.newLine();
+
+            byte[] buffer = new byte[1024 * 1024];
+            int length = 0;
+            long hash = 0;
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) != -1) {
+                if (checksum != null) {
+                    checksum.update(buffer, 0, bytesRead);
+                }
+                for (int i = 0; i < bytesRead; i++) {
+                    byte value = buffer[i];
+                    chunk[length++] = value;
+                    hash = (hash << 1) + GEAR[value & 0xFF];
+
+                    if ((length >= MIN_CHUNK && (hash & CHUNK_MASK) == 0) || length == MAX_CHUNK) {
+                        written += storeChunk(chunk, length, digest, hex, out);
+                        fileLength += length;
+                        length = 0;
+                        hash = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                written += storeChunk(chunk, length, digest, hex, out);
+                fileLength += length;
+            }
+
+            out.write("END " + fileLength);
+            out.newLine();
+        }
+
+        Files.move(temporaryManifest, manifest, StandardCopyOption.REPLACE_EXISTING);
+        return written;
+    }
+
+    // Remonta o arquivo original a partir do manifesto, conferindo o hash de cada pedaço
+    public void restore(Path manifest, Path target) throws IOException {
+        MessageDigest digest = newDigest();
+        HexFormat hex = HexFormat.of();
+        long expectedLength = -1;
+        long restoredLength = 0;
+
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8);
+             OutputStream out = Files.newOutputStream(target)) {
+
+            if (!MANIFEST_HEADER.equals(reader.readLine())) {
+                throw new IOException("invalid chunk manifest " + manifest);
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] params = line.split(" ");
+                if (params[0].equals("END")) {
+                    expectedLength = Long.parseLong(params[1]);
+                    break;
+                }
+
+                byte[] data = Files.readAllBytes(chunkPath(params[0]));
+                if (data.length != Integer.parseInt(params[1])
+                        || !hex.formatHex(digest.digest(data)).equals(params[0])) {
+                    throw new IOException("corrupted chunk " + params[0] + " in " + manifest);
+                }
+                out.write(data);
+                restoredLength += data.length;
+            }
+        }
+
+        if (expectedLength != restoredLength) {
+            throw new IOException("incomplete chunk manifest " + manifest);
+        }
+    }
+
+    private long storeChunk(byte[] chunk, int length, MessageDigest digest, HexFormat hex, BufferedWriter manifest)
+            throws IOException, InterruptedException {
+        digest.update(chunk, 0, length);
+        String hash = hex.formatHex(digest.digest());
+
+        manifest.write(hash + " " + length);
+        manifest.newLine();
+
+        if (knownChunks.contains(hash)) {
+            return 0;
+        }
+
+        Path chunkPath = chunkPath(hash);
+        if (Files.exists(chunkPath)) {
+            knownChunks.add(hash);
+            return 0;
+        }
+
+        governor.acquire(length);
+        Files.createDirectories(chunkPath.getParent());
+        Path temporary = chunkPath.resolveSibling(hash + "." + Thread.currentThread().threadId() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            out.write(chunk, 0, length);
+        }
+        Files.move(temporary, chunkPath, StandardCopyOption.REPLACE_EXISTING);
+        knownChunks.add(hash);
+        return length;
+    }
+
+    private Path chunkPath(String hash) {
+        return chunksRoot.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Cópia comprimida para links lentos: o arquivo vai para "<destino>.gedaz" em Deflate (zlib,
+// que já traz o checksum Adler-32), com um cabeçalho que guarda o tamanho e a data originais.
+// O limite de banda é cobrado sobre os bytes comprimidos, que é o que passa pela rede.
+// Arquivos que já vêm comprimidos (pela extensão ou pelos primeiros bytes) ou que quase não
+// diminuem num teste com o primeiro bloco seguem pela cópia normal.
+public class CompressedTransfer {
+
+    static final String COMPRESSED_SUFFIX = ".gedaz";
+
+    private static final int MAGIC = 0x4745445A; // "GEDZ"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 1 + 8 + 8;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int PROBE_SIZE = 64 * 1024;
+    private static final double MAX_PROBE_RATIO = 0.9;
+
+    static final Set<String> DEFAULT_SKIP_EXTENSIONS = Set.of(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "cab",
+            "jpg", "jpeg", "png", "gif", "webp", "heic",
+            "mp3", "mp4", "m4a", "mkv", "avi", "mov", "ogg", "flac",
+            "docx", "xlsx", "pptx", "odt", "ods", "jar", "pst");
+
+    private final BandwidthGovernor governor;
+    private final int level;
+    private final long minFileSize;
+    private final Set<String> skipExtensions;
+
+    public CompressedTransfer(BandwidthGovernor governor, int level, long minFileSize, Set<String> skipExtensions) {
+        this.governor = governor;
+        this.level = level;
+        this.minFileSize = minFileSize;
+        this.skipExtensions = skipExtensions;
+    }
+
+    public static Path compressedPathFor(Path destination) {
+        return destination.resolveSibling(destination.getFileName() + COMPRESSED_SUFFIX);
+    }
+
+    public static boolean isCompressedFile(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(COMPRESSED_SUFFIX);
+    }
+
+    // Nome que o arquivo teria sem compressão
+    public static Path originalPathFor(Path compressed) {
+        String name = compressed.getFileName().toString();
+        return compressed.resolveSibling(name.substring(0, name.length() - COMPRESSED_SUFFIX.length()));
+    }
+
+    public boolean shouldCompress(Path source, long size) throws IOException {
+        if (size < minFileSize) {
+            return false;
+        }
+
+        String name = source.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && skipExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+            return false;
+        }
+
+        byte[] head = new byte[(int) Math.min(PROBE_SIZE, size)];
+        int read;
+        try (InputStream input = Files.newInputStream(source)) {
+            read = input.readNBytes(head, 0, head.length);
+        }
+        return !hasCompressedMagic(head, read) && probeRatio(head, read) <= MAX_PROBE_RATIO;
+    }
+
+    // Assinaturas de formatos que já são comprimidos
+    static boolean hasCompressedMagic(byte[] head, int length) {
+        return startsWith(head, length, 0, 0x50, 0x4B, 0x03, 0x04)               // zip (e docx/xlsx/jar)
+                || startsWith(head, length, 0, 0x1F, 0x8B)                       // gzip
+                || startsWith(head, length, 0, 0x28, 0xB5, 0x2F, 0xFD)           // zstd
+                || startsWith(head, length, 0, 0xFD, 0x37, 0x7A, 0x58, 0x5A, 0x00) // xz
+                || startsWith(head, length, 0, 0x42, 0x5A, 0x68)                 // bzip2
+                || startsWith(head, length, 0, 0x37, 0x7A, 0xBC, 0xAF, 0x27, 0x1C) // 7z
+                || startsWith(head, length, 0, 0x52, 0x61, 0x72, 0x21)           // rar
+                || startsWith(head, length, 0, 0x89, 0x50, 0x4E, 0x47)           // png
+                || startsWith(head, length, 0, 0xFF, 0xD8, 0xFF)                 // jpeg
+                || startsWith(head, length, 0, 0x47, 0x49, 0x46, 0x38)           // gif
+                || startsWith(head, length, 0, 0x4F, 0x67, 0x67, 0x53)           // ogg
+                || startsWith(head, length, 4, 0x66, 0x74, 0x79, 0x70)           // mp4/mov (ftyp)
+                || startsWith(head, length, 0, 0x47, 0x45, 0x44, 0x5A);          // já é um .gedaz
+    }
+
+    private static boolean startsWith(byte[] head, int length, int offset, int... magic) {
+        if (length < offset + magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Compressão rápida do primeiro bloco só para estimar se vale a pena
+    private static double probeRatio(byte[] head, int length) {
+        if (length == 0) {
+            return 1;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(head, 0, length);
+            deflater.finish();
+            byte[] output = new byte[length + 64];
+            int compressed = 0;
+            while (!deflater.finished() && compressed < output.length) {
+                compressed += deflater.deflate(output, compressed, output.length - compressed);
+            }
+            return (double) compressed / length;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // Grava em um .tmp e renomeia no final, o destino nunca fica pela metade.
+    // Devolve quantos bytes comprimidos foram escritos. checksum (opcional) recebe o conteúdo original.
+    public long copy(Path source, Path destination, Checksum checksum) throws IOException, InterruptedException {
+        Path compressed = compressedPathFor(destination);
+        Path temporary = compressed.resolveSibling(compressed.getFileName() + ".tmp");
+        FileTime modifiedTime = Files.getLastModifiedTime(source);
+        Deflater deflater = new Deflater(level);
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             ThrottledOutput throttled = new ThrottledOutput(FileChannel.open(temporary,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).put((byte) VERSION).putLong(in.size()).putLong(modifiedTime.toMillis());
+            throttled.write(header.array(), 0, HEADER_SIZE);
+
+            DeflaterOutputStream output = new DeflaterOutputStream(throttled, deflater, BUFFER_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                output.write(buffer.array(), 0, read);
+                if (checksum != null) {
+                    checksum.update(buffer.array(), 0, read);
+                }
+                total += read;
+                buffer.clear();
+            }
+            output.finish();
+            output.flush();
+
+            if (total != in.size()) {
+                throw new IOException("source changed during compressed copy " + source);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+
+        Files.move(temporary, compressed, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.setLastModifiedTime(compressed, modifiedTime);
+        // Uma versão antiga sem compressão ficaria desatualizada ao lado
+        Files.deleteIfExists(destination);
+        return Files.size(compressed);
+    }
+
+    // Descomprime um .gedaz, confere o tamanho e volta a data de modificação original
+    public static void restore(Path compressed, Path target) throws IOException {
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(compressed))) {
+            readHeader(input, compressed);
+            long originalLength = input.readLong();
+            long originalModifiedMillis = input.readLong();
+
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            long written;
+            try (InflaterInputStream inflater = new InflaterInputStream(input, new Inflater(), BUFFER_SIZE);
+                 OutputStream output = new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE)) {
+                written = inflater.transferTo(output);
+            }
+
+            if (written != originalLength) {
+                throw new IOException("Compressed backup " + compressed + " restored " + written + " bytes, expected " + originalLength);
+            }
+            Files.setLastModifiedTime(target, FileTime.fromMillis(originalModifiedMillis));
+        }
+    }
+
+    // Checksum do conteúdo original, para conferir a cópia lendo de volta o .gedaz
+    public static long contentChecksum(Path compressed) throws IOException {
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(compressed))) {
+            readHeader(input, compressed);
+            input.readLong();
+            input.readLong();
+            return IntegrityVerifier.checksumOf(new InflaterInputStream(input, new Inflater(), BUFFER_SIZE));
+        }
+    }
+
+    private static void readHeader(DataInputStream input, Path compressed) throws IOException {
+        if (input.readInt() != MAGIC) {
+            throw new IOException("Not a compressed backup file: " + compressed);
+        }
+        int version = input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compressed backup version " + version + " in " + compressed);
+        }
+    }
+
+    // Cada escrita no arquivo comprimido passa pelo BandwidthGovernor
+    private class ThrottledOutput extends OutputStream {
+        private final FileChannel channel;
+
+        ThrottledOutput(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                governor.acquire(length);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("compressed copy interrupted", e);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
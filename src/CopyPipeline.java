@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Separa a leitura dos eventos da execução das cópias.
+// Os jobs entram numa fila limitada; quando ela enche quem submete fica bloqueado
+// (backpressure) em vez de estourar a memória ou perder eventos.
+// A fila é ordenada por prazo virtual: momento do primeiro evento + uma penalidade pelo
+// tamanho do arquivo dividida pelo peso da origem. A penalidade tem teto (maxSizeDelayMillis),
+// então um arquivo grande passa na frente de tudo que chegou depois desse tempo e não fica
+// parado para sempre. Arquivos grandes também não ocupam todos os workers ao mesmo tempo:
+// sempre sobra pelo menos um para os pequenos.
+// O limite por destino é contado na hora de tirar o job da fila (take), não depois: um worker
+// nunca fica parado com um job na mão esperando vaga no destino. No mesmo destino os grandes
+// usam no máximo perDestinationLimit - 1 vagas, então um pequeno sempre consegue começar
+// (com perDestinationLimit = 1 isso não dá para garantir).
+public class CopyPipeline {
+
+    public interface CopyJob {
+        void run() throws Exception;
+    }
+
+    private record QueuedJob(long deadlineMillis, long sequence, boolean large, String destinationKey, String description, CopyJob job) {
+    }
+
+    private final int perDestinationLimit;
+    private final long sizeBytesPerSecond;
+    private final long maxSizeDelayMillis;
+    private final long largeFileSize;
+    private final int largeWorkerLimit;
+    private final Map<String, Integer> activeByDestination = new HashMap<>();
+    private final Map<String, Integer> activeLargeByDestination = new HashMap<>();
+
+    // Prazo menor primeiro; no empate, ordem de chegada
+    private final PriorityQueue<QueuedJob> smallJobs = new PriorityQueue<>(CopyPipeline::compareJobs);
+    private final PriorityQueue<QueuedJob> largeJobs = new PriorityQueue<>(CopyPipeline::compareJobs);
+    private final Semaphore queueSlots;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition jobAvailable = lock.newCondition();
+    private final List<Thread> workers = new ArrayList<>();
+
+    private long sequence;
+    private int activeJobs;
+    private int activeLargeJobs;
+    private boolean shuttingDown;
+
+    public CopyPipeline(int workerCount, int queueCapacity, int perDestinationLimit) {
+        this(workerCount, queueCapacity, perDestinationLimit, 10L * 1024 * 1024, TimeUnit.MINUTES.toMillis(30), 64L * 1024 * 1024);
+    }
+
+    // sizeBytesPerSecond: quanto de tamanho vale um segundo de atraso na fila.
+    // largeFileSize: a partir daqui o job conta no limite de workers para arquivos grandes.
+    public CopyPipeline(int workerCount, int queueCapacity, int perDestinationLimit,
+                        long sizeBytesPerSecond, long maxSizeDelayMillis, long largeFileSize) {
+        this.perDestinationLimit = perDestinationLimit;
+        this.sizeBytesPerSecond = Math.max(1, sizeBytesPerSecond);
+        this.maxSizeDelayMillis = maxSizeDelayMillis;
+        this.largeFileSize = largeFileSize;
+        this.largeWorkerLimit = Math.max(1, workerCount - 1);
+        this.queueSlots = new Semaphore(queueCapacity);
+
+        for (int i = 1; i <= workerCount; i++) {
+            Thread worker = new Thread(this::workerLoop, "copy-worker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    // Sem informação de prioridade: entra na ordem de chegada
+    public void submit(String destinationKey, String description, CopyJob job) {
+        submit(destinationKey, description, System.currentTimeMillis(), 0, 1, job);
+    }
+
+    // destinationKey identifica o destino (ex: o share do NAS) para limitar
+    // quantas cópias simultâneas vão para o mesmo lugar.
+    // eventMillis é quando a mudança aconteceu, sizeBytes o tamanho do arquivo e weight o peso da origem.
+    public void submit(String destinationKey, String description, long eventMillis, long sizeBytes, double weight, CopyJob job) {
+        try {
+            queueSlots.acquire(); // Fila cheia: bloqueia quem está submetendo até abrir espaço
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        long deadline = eventMillis + (long) (sizeDelayMillis(sizeBytes) / Math.max(0.01, weight));
+        lock.lock();
+        try {
+            if (shuttingDown) {
+                queueSlots.release();
+                Main.addLog("Error: copy pipeline is shutting down, dropped " + description);
+                return;
+            }
+            QueuedJob queued = new QueuedJob(deadline, sequence++, sizeBytes >= largeFileSize, destinationKey, description, job);
+            (queued.large() ? largeJobs : smallJobs).add(queued);
+            jobAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long sizeDelayMillis(long sizeBytes) {
+        return Math.min(maxSizeDelayMillis, sizeBytes * 1000 / sizeBytesPerSecond);
+    }
+
+    private static int compareJobs(QueuedJob first, QueuedJob second) {
+        int byDeadline = Long.compare(first.deadlineMillis(), second.deadlineMillis());
+        return byDeadline != 0 ? byDeadline : Long.compare(first.sequence(), second.sequence());
+    }
+
+    private void workerLoop() {
+        while (true) {
+            QueuedJob queued;
+            try {
+                queued = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (queued == null) {
+                return;
+            }
+            queueSlots.release();
+            try {
+                run(queued);
+            } finally {
+                lock.lock();
+                try {
+                    activeJobs--;
+                    decrement(activeByDestination, queued.destinationKey());
+                    if (queued.large()) {
+                        activeLargeJobs--;
+                        decrement(activeLargeByDestination, queued.destinationKey());
+                    }
+                    jobAvailable.signalAll(); // libera quem estava esperando vaga (worker ou destino)
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // Pega o job de menor prazo entre os pequenos e, se ainda houver vaga, os grandes,
+    // já reservando a vaga no destino. Devolve null quando o pipeline está parando e não sobrou nada.
+    private QueuedJob take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                QueuedJob small = firstRunnable(smallJobs);
+                QueuedJob large = activeLargeJobs < largeWorkerLimit ? firstRunnable(largeJobs) : null;
+                if (small != null || large != null) {
+                    QueuedJob next = large == null || (small != null && compareJobs(small, large) <= 0) ? small : large;
+                    (next.large() ? largeJobs : smallJobs).remove(next);
+                    activeJobs++;
+                    activeByDestination.merge(next.destinationKey(), 1, Integer::sum);
+                    if (next.large()) {
+                        activeLargeJobs++;
+                        activeLargeByDestination.merge(next.destinationKey(), 1, Integer::sum);
+                    }
+                    return next;
+                }
+                if (shuttingDown && smallJobs.isEmpty() && largeJobs.isEmpty()) {
+                    return null;
+                }
+                jobAvailable.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Job de menor prazo cujo destino ainda tem vaga. Normalmente é o primeiro da fila;
+    // só percorre a fila inteira quando o destino do primeiro está lotado.
+    private QueuedJob firstRunnable(PriorityQueue<QueuedJob> jobs) {
+        QueuedJob head = jobs.peek();
+        if (head == null || canStart(head)) {
+            return head;
+        }
+        QueuedJob best = null;
+        for (QueuedJob queued : jobs) {
+            if (canStart(queued) && (best == null || compareJobs(queued, best) < 0)) {
+                best = queued;
+            }
+        }
+        return best;
+    }
+
+    private boolean canStart(QueuedJob queued) {
+        if (activeByDestination.getOrDefault(queued.destinationKey(), 0) >= perDestinationLimit) {
+            return false;
+        }
+        return !queued.large()
+                || activeLargeByDestination.getOrDefault(queued.destinationKey(), 0) < Math.max(1, perDestinationLimit - 1);
+    }
+
+    private static void decrement(Map<String, Integer> counts, String key) {
+        counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private void run(QueuedJob queued) {
+        try {
+            queued.job().run();
+        } catch (Exception e) {
+            Main.addLog("Error: copy pipeline " + queued.description() + " " + e);
+        }
+    }
+
+    public int pendingJobs() {
+        lock.lock();
+        try {
+            return smallJobs.size() + largeJobs.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int activeJobs() {
+        lock.lock();
+        try {
+            return activeJobs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Termina o que está na fila; o que passar do tempo limite é interrompido
+    public void shutdown(long timeoutSeconds) {
+        lock.lock();
+        try {
+            shuttingDown = true;
+            jobAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        try {
+            for (Thread worker : workers) {
+                worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (workers.stream().anyMatch(Thread::isAlive)) {
+            Main.addLog("Error: copy pipeline did not finish, pending " + pendingJobs());
+            workers.forEach(Thread::interrupt);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+// Cópia delta no estilo rsync para arquivos grandes (PST, discos de VM, bancos).
+// Ao lado de cada arquivo copiado fica um "<arquivo>.gedasig" com o checksum fraco
+// (rsync) e o forte (MD5) de cada bloco. Quando o arquivo muda, a origem é lida localmente,
+// os checksums são comparados com a assinatura e só os blocos diferentes são reescritos
+// no destino, na mesma posição. O destino nunca é lido pela rede.
+public class DeltaTransfer {
+
+    static final String SIGNATURE_SUFFIX = ".gedasig";
+
+    private static final int MAGIC = 0x47534947; // "GSIG"
+    private static final int VERSION = 1;
+    private static final int STRONG_LENGTH = 16;
+
+    private final BandwidthGovernor governor;
+    private final int blockSize;
+
+    private static class Signature {
+        long fileLength;
+        long destinationModifiedMillis;
+        int[] weak;
+        byte[] strong;
+    }
+
+    public DeltaTransfer(BandwidthGovernor governor, int blockSize) {
+        this.governor = governor;
+        this.blockSize = blockSize;
+    }
+
+    public static boolean isSignatureFile(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(SIGNATURE_SUFFIX);
+    }
+
+    // Devolve quantos bytes foram escritos no destino
+    // checksum (opcional) recebe o conteúdo inteiro da origem, lido uma vez só
+    public long copy(Path source, Path destination, Checksum checksum) throws IOException, InterruptedException {
+        Path signaturePath = destination.resolveSibling(destination.getFileName() + SIGNATURE_SUFFIX);
+        Signature previous = readSignature(signaturePath, destination);
+        Signature current = new Signature();
+        MessageDigest strongDigest = newDigest();
+        long written = 0;
+
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+
+            long size = in.size();
+            int blocks = (int) ((size + blockSize - 1) / blockSize);
+            current.fileLength = size;
+            current.weak = new int[blocks];
+            current.strong = new byte[blocks * STRONG_LENGTH];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(blockSize);
+
+            for (int i = 0; i < blocks; i++) {
+                long position = (long) i * blockSize;
+                int length = (int) Math.min(blockSize, size - position);
+
+                buffer.clear().limit(length);
+                while (buffer.hasRemaining()) {
+                    if (in.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("source truncated during delta copy " + source);
+                    }
+                }
+                buffer.flip();
+
+                current.weak[i] = weakChecksum(buffer, length);
+                strongDigest.update(buffer);
+                strongDigest.digest(current.strong, i * STRONG_LENGTH, STRONG_LENGTH);
+                if (checksum != null) {
+                    buffer.rewind();
+                    checksum.update(buffer);
+                }
+
+                if (!sameBlock(previous, current, i, length)) {
+                    governor.acquire(length);
+                    buffer.rewind();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer, position + buffer.position());
+                    }
+                    written += length;
+                }
+            }
+
+            out.truncate(size);
+        } catch (DigestException e) {
+            throw new IOException(e);
+        }
+
+        TransferEngine.preserveModifiedTime(source, destination);
+        current.destinationModifiedMillis = Files.getLastModifiedTime(destination).toMillis();
+        writeSignature(signaturePath, current);
+        return written;
+    }
+
+    private boolean sameBlock(Signature previous, Signature current, int block, int length) {
+        if (previous == null || block >= previous.weak.length) {
+            return false;
+        }
+        long previousLength = Math.min(blockSize, previous.fileLength - (long) block * blockSize);
+        int from = block * STRONG_LENGTH;
+        return previousLength == length
+                && previous.weak[block] == current.weak[block]
+                && Arrays.equals(previous.strong, from, from + STRONG_LENGTH, current.strong, from, from + STRONG_LENGTH);
+    }
+
+    // Checksum fraco do rsync: a = soma dos bytes, b = soma ponderada pela posição
+    private static int weakChecksum(ByteBuffer buffer, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int value = buffer.get(i) & 0xFF;
+            a += value;
+            b += (length - i) * value;
+        }
+        return ((b & 0xFFFF) << 16) | (a & 0xFFFF);
+    }
+
+    // Só usa a assinatura se ela bate com o arquivo que está no destino hoje;
+    // se o destino foi mexido por fora, a cópia volta a ser completa.
+    private Signature readSignature(Path signaturePath, Path destination) {
+        if (Files.notExists(signaturePath) || Files.notExists(destination)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(signaturePath)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != blockSize) {
+                return null;
+            }
+
+            Signature signature = new Signature();
+            signature.fileLength = in.readLong();
+            signature.destinationModifiedMillis = in.readLong();
+            if (signature.fileLength != Files.size(destination)
+                    || signature.destinationModifiedMillis != Files.getLastModifiedTime(destination).toMillis()) {
+                return null;
+            }
+
+            int blocks = in.readInt();
+            signature.weak = new int[blocks];
+            signature.strong = new byte[blocks * STRONG_LENGTH];
+            for (int i = 0; i < blocks; i++) {
+                signature.weak[i] = in.readInt();
+                in.readFully(signature.strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+            return signature;
+        } catch (IOException e) {
+            Main.addLog("Error: delta signature " + signaturePath + " " + e);
+            return null;
+        }
+    }
+
+    private void writeSignature(Path signaturePath, Signature signature) throws IOException {
+        Path temporary = signaturePath.resolveSibling(signaturePath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(blockSize);
+            out.writeLong(signature.fileLength);
+            out.writeLong(signature.destinationModifiedMillis);
+            out.writeInt(signature.weak.length);
+            for (int i = 0; i < signature.weak.length; i++) {
+                out.writeInt(signature.weak[i]);
+                out.write(signature.strong, i * STRONG_LENGTH, STRONG_LENGTH);
+            }
+        }
+        Files.move(temporary, signaturePath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Índice dos arquivos do destino e da data de modificação de cada um.
+// É uma trie de caminhos: cada nó é achado pela aresta (pai, segmento) e os nomes de
+// pasta/arquivo são guardados uma única vez (pastas com o mesmo nome em lugares diferentes
+// compartilham a string).
+// Cada nó é só a data num array de long e as arestas numa tabela hash aberta (pai << 32 | segmento),
+// então uma consulta custa um acesso por segmento do caminho e não cria objetos.
+// Serve para saber se um arquivo já tem versão no destino sem consultar o compartilhamento.
+public class DestinationIndex {
+
+    private static final int ROOT = 0;
+    private static final long NOT_A_FILE = Long.MIN_VALUE;
+
+    private final Path basePath;
+
+    // Segmentos (nomes) internados
+    private final Map<String, Integer> segmentIds = new HashMap<>();
+
+    // Nós
+    private int nodeCount = 1;
+    private long[] modifiedMillis = new long[1024];
+    private int fileCount = 0;
+
+    // Arestas: chave (pai << 32 | segmento) -> filho + 1 (0 = vazio)
+    private long[] edgeKeys = new long[2048];
+    private int[] edgeChildren = new int[2048];
+    private int edgeCount = 0;
+
+    public DestinationIndex(Path basePath) {
+        this.basePath = basePath;
+        modifiedMillis[ROOT] = NOT_A_FILE;
+    }
+
+    public synchronized int size() {
+        return fileCount;
+    }
+
+    // Arquivo gravado (ou encontrado na varredura) com essa data de modificação
+    public synchronized void update(Path file, long lastModifiedMillis) {
+        Path relative = relativize(file);
+        if (relative == null) {
+            return;
+        }
+
+        int node = ROOT;
+        for (int i = 0; i < relative.getNameCount(); i++) {
+            node = child(node, segmentId(relative.getName(i).toString()), true);
+        }
+        if (modifiedMillis[node] == NOT_A_FILE) {
+            fileCount++;
+        }
+        modifiedMillis[node] = lastModifiedMillis;
+    }
+
+    // O nó continua na trie (pode voltar a existir), só deixa de ser arquivo
+    public synchronized void remove(Path file) {
+        int node = find(file);
+        if (node > ROOT && modifiedMillis[node] != NOT_A_FILE) {
+            modifiedMillis[node] = NOT_A_FILE;
+            fileCount--;
+        }
+    }
+
+    public synchronized boolean contains(Path file) {
+        int node = find(file);
+        return node > ROOT && modifiedMillis[node] != NOT_A_FILE;
+    }
+
+    private Path relativize(Path file) {
+        if (!file.startsWith(basePath)) {
+            return null;
+        }
+        Path relative = basePath.relativize(file);
+        return relative.toString().isEmpty() ? null : relative;
+    }
+
+    private int find(Path file) {
+        Path relative = relativize(file);
+        if (relative == null) {
+            return -1;
+        }
+
+        int node = ROOT;
+        for (int i = 0; i < relative.getNameCount() && node >= 0; i++) {
+            Integer segment = segmentIds.get(relative.getName(i).toString());
+            node = segment == null ? -1 : child(node, segment, false);
+        }
+        return node;
+    }
+
+    private int segmentId(String name) {
+        Integer id = segmentIds.get(name);
+        if (id == null) {
+            id = segmentIds.size();
+            segmentIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int child(int parent, int segment, boolean create) {
+        long key = ((long) parent << 32) | (segment & 0xFFFFFFFFL);
+        int mask = edgeKeys.length - 1;
+        int slot = hash(key) & mask;
+        while (edgeChildren[slot] != 0) {
+            if (edgeKeys[slot] == key) {
+                return edgeChildren[slot] - 1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        int node = newNode();
+        edgeKeys[slot] = key;
+        edgeChildren[slot] = node + 1;
+        if (++edgeCount * 2 > edgeKeys.length) {
+            growEdges();
+        }
+        return node;
+    }
+
+    private int newNode() {
+        if (nodeCount == modifiedMillis.length) {
+            modifiedMillis = Arrays.copyOf(modifiedMillis, modifiedMillis.length * 2);
+        }
+        int node = nodeCount++;
+        modifiedMillis[node] = NOT_A_FILE;
+        return node;
+    }
+
+    private void growEdges() {
+        long[] oldKeys = edgeKeys;
+        int[] oldChildren = edgeChildren;
+        edgeKeys = new long[oldKeys.length * 2];
+        edgeChildren = new int[oldKeys.length * 2];
+        int mask = edgeKeys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldChildren[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (edgeChildren[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                edgeKeys[slot] = oldKeys[i];
+                edgeChildren[slot] = oldChildren[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
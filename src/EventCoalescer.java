@@ -0,0 +1,193 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+// Junta os eventos de um mesmo arquivo (caminho completo) até ele ficar quieto.
+// Programas como o Office geram vários CREATE/MODIFY/DELETE em sequência ao salvar;
+// aqui eles viram uma única ação final, que só é liberada depois de quietMillis sem
+// eventos e com tamanho e data de modificação iguais em duas verificações seguidas.
+public class EventCoalescer {
+
+    public interface Sink {
+        // firstEventMillis: quando chegou o primeiro evento agrupado nessa ação
+        void accept(Path fullSourcePath, WatchEvent.Kind<?> kind, long firstEventMillis);
+    }
+
+    private static class PendingChange {
+        WatchEvent.Kind<?> kind;
+        long firstEventMillis;
+        long lastEventMillis;
+        long size = -1;
+        long lastModifiedMillis = -1;
+    }
+
+    private final Map<Path, PendingChange> pending = new HashMap<>();
+    private final long quietMillis;
+    private final Sink sink;
+    private final ScheduledExecutorService ticker;
+    private final AtomicLong receivedEvents = new AtomicLong();
+    private final AtomicLong emittedEvents = new AtomicLong();
+
+    public EventCoalescer(long quietMillis, Sink sink) {
+        this.quietMillis = quietMillis;
+        this.sink = sink;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMillis = Math.max(100, quietMillis / 2);
+        ticker.scheduleWithFixedDelay(this::flushReady, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void offer(Path fullSourcePath, WatchEvent.Kind<?> kind) {
+        receivedEvents.incrementAndGet();
+
+        PendingChange change = pending.get(fullSourcePath);
+        if (change == null) {
+            change = new PendingChange();
+            change.kind = kind;
+            change.firstEventMillis = System.currentTimeMillis();
+            pending.put(fullSourcePath, change);
+        } else {
+            change.kind = merge(change.kind, kind);
+            if (change.kind == null) {
+                // Criado e apagado dentro da janela: não há nada para copiar
+                pending.remove(fullSourcePath);
+                return;
+            }
+        }
+        change.lastEventMillis = System.currentTimeMillis();
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public long receivedEvents() {
+        return receivedEvents.get();
+    }
+
+    public long emittedEvents() {
+        return emittedEvents.get();
+    }
+
+    // Para o ticker e entrega o que ainda estava esperando a janela de quietude,
+    // para nenhuma mudança ficar para trás quando o programa é encerrado
+    public void shutdown() {
+        ticker.shutdown();
+        try {
+            ticker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Map<Path, PendingChange> remaining;
+        synchronized (this) {
+            remaining = new HashMap<>(pending);
+            pending.clear();
+        }
+        for (Map.Entry<Path, PendingChange> entry : remaining.entrySet()) {
+            PendingChange change = entry.getValue();
+            boolean exists = Files.exists(entry.getKey());
+            if (!exists && change.kind == ENTRY_CREATE) {
+                continue; // sumiu antes de ser copiado
+            }
+            emittedEvents.incrementAndGet();
+            sink.accept(entry.getKey(), exists ? change.kind : ENTRY_DELETE, change.firstEventMillis);
+        }
+    }
+
+    private static WatchEvent.Kind<?> merge(WatchEvent.Kind<?> previous, WatchEvent.Kind<?> next) {
+        if (previous == ENTRY_CREATE) {
+            return next == ENTRY_DELETE ? null : ENTRY_CREATE;
+        }
+        if (previous == ENTRY_DELETE) {
+            // Apagado e criado de novo (salvar via rename) é uma modificação
+            return next == ENTRY_DELETE ? ENTRY_DELETE : ENTRY_MODIFY;
+        }
+        // MODIFY
+        return next == ENTRY_MODIFY ? ENTRY_MODIFY : next;
+    }
+
+    private void flushReady() {
+        try {
+            long now = System.currentTimeMillis();
+            List<Path> candidates = new ArrayList<>();
+            synchronized (this) {
+                for (Map.Entry<Path, PendingChange> entry : pending.entrySet()) {
+                    if (now - entry.getValue().lastEventMillis >= quietMillis) {
+                        candidates.add(entry.getKey());
+                    }
+                }
+            }
+
+            List<Path> readyPaths = new ArrayList<>();
+            List<WatchEvent.Kind<?>> readyKinds = new ArrayList<>();
+            List<Long> readyFirstEvents = new ArrayList<>();
+
+            for (Path path : candidates) {
+                // Lê os atributos fora do lock para não travar o monitor
+                BasicFileAttributes attrs = readAttributes(path);
+
+                synchronized (this) {
+                    PendingChange change = pending.get(path);
+                    if (change == null || now - change.lastEventMillis < quietMillis) {
+                        continue; // chegou evento novo enquanto verificava
+                    }
+
+                    if (change.kind == ENTRY_DELETE || attrs == null || attrs.isDirectory()) {
+                        pending.remove(path);
+                        if (attrs == null && change.kind == ENTRY_CREATE) {
+                            continue; // sumiu antes de ser copiado
+                        }
+                        readyPaths.add(path);
+                        readyKinds.add(attrs == null ? ENTRY_DELETE : change.kind);
+                        readyFirstEvents.add(change.firstEventMillis);
+                    } else if (attrs.size() == change.size
+                            && attrs.lastModifiedTime().toMillis() == change.lastModifiedMillis) {
+                        pending.remove(path);
+                        readyPaths.add(path);
+                        readyKinds.add(change.kind);
+                        readyFirstEvents.add(change.firstEventMillis);
+                    } else {
+                        // Ainda sendo escrito: guarda o estado e espera mais uma janela
+                        change.size = attrs.size();
+                        change.lastModifiedMillis = attrs.lastModifiedTime().toMillis();
+                        change.lastEventMillis = now;
+                    }
+                }
+            }
+
+            // Entrega fora do lock, o sink pode bloquear pela fila cheia
+            for (int i = 0; i < readyPaths.size(); i++) {
+                emittedEvents.incrementAndGet();
+                sink.accept(readyPaths.get(i), readyKinds.get(i), readyFirstEvents.get(i));
+            }
+        } catch (Exception e) {
+            Main.addLog("Error: event coalescer " + e);
+        }
+    }
+
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
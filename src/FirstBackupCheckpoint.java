@@ -0,0 +1,90 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+// Checkpoint do backup inicial, para continuar de onde parou depois de uma queda.
+// Cada linha é um journal: "F|arquivo" para arquivo copiado e "D|pasta" para pasta
+// cuja árvore inteira terminou sem erro (na próxima execução ela nem é percorrida).
+public class FirstBackupCheckpoint {
+
+    private final Path arquivePath;
+    private final Set<String> doneFiles = new HashSet<>();
+    private final Set<String> doneDirectories = new HashSet<>();
+    private FileOutputStream output;
+    private BufferedWriter writer;
+
+    private FirstBackupCheckpoint(Path arquivePath) {
+        this.arquivePath = arquivePath;
+    }
+
+    public static FirstBackupCheckpoint load(Path arquivePath) throws IOException {
+        FirstBackupCheckpoint checkpoint = new FirstBackupCheckpoint(arquivePath);
+
+        if (Files.exists(arquivePath)) {
+            try (BufferedReader reader = Files.newBufferedReader(arquivePath, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Uma linha cortada por queda no meio da escrita é simplesmente ignorada
+                    if (line.startsWith("F|")) {
+                        checkpoint.doneFiles.add(line.substring(2));
+                    } else if (line.startsWith("D|")) {
+                        checkpoint.doneDirectories.add(line.substring(2));
+                    }
+                }
+            }
+        }
+
+        checkpoint.output = new FileOutputStream(arquivePath.toFile(), true);
+        checkpoint.writer = new BufferedWriter(new OutputStreamWriter(checkpoint.output, StandardCharsets.UTF_8));
+        return checkpoint;
+    }
+
+    public synchronized boolean isFileDone(Path file) {
+        return doneFiles.contains(file.toString());
+    }
+
+    public synchronized boolean isDirectoryDone(Path directory) {
+        return doneDirectories.contains(directory.toString());
+    }
+
+    public synchronized int doneFilesCount() {
+        return doneFiles.size();
+    }
+
+    public synchronized int doneDirectoriesCount() {
+        return doneDirectories.size();
+    }
+
+    public synchronized void markFile(Path file) throws IOException {
+        doneFiles.add(file.toString());
+        writer.write("F|" + file);
+        writer.newLine();
+        writer.flush();
+    }
+
+    // Pasta concluída: além de gravar, força o journal para o disco
+    public synchronized void markDirectory(Path directory) throws IOException {
+        doneDirectories.add(directory.toString());
+        writer.write("D|" + directory);
+        writer.newLine();
+        writer.flush();
+        output.getChannel().force(false);
+    }
+
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    // Backup inicial concluído: o checkpoint não é mais necessário
+    public synchronized void delete() throws IOException {
+        writer.close();
+        Files.deleteIfExists(arquivePath);
+    }
+}
@@ -0,0 +1,328 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Backup inicial em paralelo.
+// As pastas são percorridas num ForkJoinPool (cada pasta é uma tarefa, as subpastas são
+// divididas entre as threads) e os arquivos encontrados vão para duas filas: pequenos e grandes.
+// Parte dos workers de cópia prefere a fila de grandes e o resto a de pequenos, assim um
+// arquivo enorme não segura a fila e os pequenos continuam andando em paralelo.
+// O progresso vai para um FirstBackupCheckpoint: numa nova execução as pastas concluídas são
+// puladas inteiras e arquivos já copiados (pelo checkpoint ou por tamanho e data iguais no
+// destino) não são copiados de novo. O que o PathFilter exclui não entra na contagem e as pastas
+// excluídas nem são listadas.
+public class FirstBackupSeeder {
+
+    public interface FileCopier {
+        void copy(Path sourceRoot, Path destinationRoot, Path file) throws Exception;
+    }
+
+    private record FileJob(Path sourceRoot, Path destinationRoot, Path file, long size, DirectoryNode directory) {
+    }
+
+    // Conta o que ainda falta dentro de uma pasta (arquivos, subpastas e a própria listagem).
+    // Quando chega a zero sem erros a pasta vai para o checkpoint e avisa a pasta pai.
+    private class DirectoryNode {
+        private final DirectoryNode parent;
+        private final Path directory;
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean failed = false;
+
+        DirectoryNode(DirectoryNode parent, Path directory) {
+            this.parent = parent;
+            this.directory = directory;
+        }
+
+        void release(boolean succeeded) {
+            if (!succeeded) {
+                failed = true;
+            }
+            if (pending.decrementAndGet() == 0) {
+                if (!failed) {
+                    try {
+                        checkpoint.markDirectory(directory);
+                    } catch (IOException e) {
+                        Main.addLog("Error: first backup checkpoint " + directory + " " + e);
+                    }
+                }
+                if (parent != null) {
+                    parent.release(!failed);
+                }
+            }
+        }
+    }
+
+    private final FileCopier copier;
+    private final FirstBackupCheckpoint checkpoint;
+    private final PathFilter pathFilter;
+    private final int walkThreads;
+    private final int copyWorkers;
+    private final long largeFileThreshold;
+    private final long progressSeconds;
+
+    private final BlockingQueue<FileJob> smallFiles = new LinkedBlockingQueue<>(100_000);
+    private final BlockingQueue<FileJob> largeFiles = new LinkedBlockingQueue<>(10_000);
+    private volatile boolean walkFinished = false;
+
+    private final AtomicLong discoveredFiles = new AtomicLong();
+    private final AtomicLong discoveredBytes = new AtomicLong();
+    private final AtomicLong copiedFiles = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong skippedDirectories = new AtomicLong();
+    private final AtomicLong walkErrors = new AtomicLong();
+
+    public FirstBackupSeeder(FileCopier copier, FirstBackupCheckpoint checkpoint, PathFilter pathFilter, int walkThreads, int copyWorkers,
+                             long largeFileThreshold, long progressSeconds) {
+        this.copier = copier;
+        this.checkpoint = checkpoint;
+        this.pathFilter = pathFilter;
+        this.walkThreads = walkThreads;
+        this.copyWorkers = copyWorkers;
+        this.largeFileThreshold = largeFileThreshold;
+        this.progressSeconds = progressSeconds;
+    }
+
+    // roots[i] é copiado para destinationRoots[i]. Retorna true se tudo foi copiado sem erro.
+    public boolean run(List<Path> roots, List<Path> destinationRoots) throws InterruptedException {
+        long startNanos = System.nanoTime();
+
+        List<Thread> workers = new ArrayList<>();
+        int largeWorkers = Math.max(1, copyWorkers / 4);
+        for (int i = 0; i < copyWorkers; i++) {
+            boolean prefersLarge = i < largeWorkers;
+            Thread worker = new Thread(() -> copyLoop(prefersLarge), "first-backup-copy-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+
+        Thread reporter = new Thread(() -> reportLoop(startNanos), "first-backup-progress");
+        reporter.setDaemon(true);
+        reporter.start();
+
+        ForkJoinPool walkPool = new ForkJoinPool(walkThreads);
+        try {
+            List<DirectoryTask> tasks = new ArrayList<>();
+            for (int i = 0; i < roots.size(); i++) {
+                tasks.add(new DirectoryTask(roots.get(i), destinationRoots.get(i), roots.get(i), null));
+            }
+            walkPool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            walkPool.shutdown();
+            walkFinished = true;
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        reporter.interrupt();
+        logProgress(startNanos);
+        return failedFiles.get() == 0 && walkErrors.get() == 0;
+    }
+
+    @SuppressWarnings("serial") // nunca é serializada, só roda no ForkJoinPool
+    private class DirectoryTask extends RecursiveAction {
+        private final Path sourceRoot;
+        private final Path destinationRoot;
+        private final Path directory;
+        private final DirectoryNode parent;
+
+        DirectoryTask(Path sourceRoot, Path destinationRoot, Path directory, DirectoryNode parent) {
+            this.sourceRoot = sourceRoot;
+            this.destinationRoot = destinationRoot;
+            this.directory = directory;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            if (checkpoint.isDirectoryDone(directory)) {
+                skippedDirectories.incrementAndGet();
+                if (parent != null) {
+                    parent.release(true);
+                }
+                return;
+            }
+
+            DirectoryNode node = new DirectoryNode(parent, directory);
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            boolean listed = false;
+
+            try {
+                Path destinationDirectory = destinationRoot.resolve(sourceRoot.relativize(directory));
+                Files.createDirectories(destinationDirectory);
+
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        Path relative = sourceRoot.relativize(entry);
+                        if (attrs.isDirectory()) {
+                            if (!pathFilter.acceptsRelativeDirectory(sourceRoot, relative)) {
+                                continue;
+                            }
+                            node.pending.incrementAndGet();
+                            subdirectories.add(new DirectoryTask(sourceRoot, destinationRoot, entry, node));
+                        } else if (attrs.isRegularFile()) {
+                            if (!pathFilter.acceptsRelativeFile(sourceRoot, relative, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                                continue;
+                            }
+                            discoveredFiles.incrementAndGet();
+                            discoveredBytes.addAndGet(attrs.size());
+
+                            if (alreadyCopied(entry, attrs, destinationDirectory.resolve(entry.getFileName().toString()))) {
+                                skippedFiles.incrementAndGet();
+                                copiedFiles.incrementAndGet();
+                                copiedBytes.addAndGet(attrs.size());
+                                continue;
+                            }
+
+                            node.pending.incrementAndGet();
+                            FileJob job = new FileJob(sourceRoot, destinationRoot, entry, attrs.size(), node);
+                            ForkJoinPool.managedBlock(new QueuePut(attrs.size() >= largeFileThreshold ? largeFiles : smallFiles, job));
+                        }
+                    }
+                }
+                listed = true;
+            } catch (IOException e) {
+                walkErrors.incrementAndGet();
+                Main.addLog("Error: first backup walk " + directory + " " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            node.release(listed);
+            invokeAll(subdirectories);
+        }
+
+        // Pelo checkpoint ou por já existir no destino com o mesmo tamanho e data de modificação
+        private boolean alreadyCopied(Path file, BasicFileAttributes attrs, Path destinationFile) {
+            if (checkpoint.isFileDone(file)) {
+                return true;
+            }
+            if (Main.isPackedCurrent(destinationFile, attrs.lastModifiedTime().toMillis())) {
+                return true;
+            }
+            try {
+                BasicFileAttributes destinationAttrs = Files.readAttributes(destinationFile, BasicFileAttributes.class);
+                return destinationAttrs.size() == attrs.size()
+                        && destinationAttrs.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis();
+            } catch (IOException e) {
+                // Pode ter sido gravado comprimido: aí só a data de modificação pode ser comparada
+                try {
+                    return Files.getLastModifiedTime(CompressedTransfer.compressedPathFor(destinationFile)).toMillis()
+                            == attrs.lastModifiedTime().toMillis();
+                } catch (IOException notCompressed) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    // Permite ao ForkJoinPool compensar a thread enquanto ela espera a fila esvaziar
+    private static class QueuePut implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<FileJob> queue;
+        private final FileJob job;
+        private boolean done = false;
+
+        QueuePut(BlockingQueue<FileJob> queue, FileJob job) {
+            this.queue = queue;
+            this.job = job;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            queue.put(job);
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done || (done = queue.offer(job));
+        }
+    }
+
+    private void copyLoop(boolean prefersLarge) {
+        BlockingQueue<FileJob> first = prefersLarge ? largeFiles : smallFiles;
+        BlockingQueue<FileJob> second = prefersLarge ? smallFiles : largeFiles;
+
+        try {
+            while (true) {
+                FileJob job = first.poll();
+                if (job == null) {
+                    job = second.poll();
+                }
+                if (job == null) {
+                    job = first.poll(100, TimeUnit.MILLISECONDS);
+                }
+                if (job == null) {
+                    if (walkFinished && smallFiles.isEmpty() && largeFiles.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+
+                try {
+                    copier.copy(job.sourceRoot(), job.destinationRoot(), job.file());
+                    checkpoint.markFile(job.file());
+                    copiedFiles.incrementAndGet();
+                    copiedBytes.addAndGet(job.size());
+                    job.directory().release(true);
+                } catch (Exception e) {
+                    failedFiles.incrementAndGet();
+                    Main.addLog("Error: first backup copy " + job.file() + " " + e);
+                    job.directory().release(false);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reportLoop(long startNanos) {
+        try {
+            while (true) {
+                Thread.sleep(progressSeconds * 1000);
+                logProgress(startNanos);
+            }
+        } catch (InterruptedException e) {
+            // fim do backup inicial
+        }
+    }
+
+    // A estimativa usa os bytes já encontrados; enquanto a varredura não termina o total ainda cresce
+    private void logProgress(long startNanos) {
+        double elapsedSeconds = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000_000.0);
+        long done = copiedBytes.get();
+        long total = discoveredBytes.get();
+        double bytesPerSecond = done / elapsedSeconds;
+        long etaSeconds = bytesPerSecond > 0 ? (long) ((total - done) / bytesPerSecond) : -1;
+
+        Main.addLog("Info: first backup progress files " + copiedFiles.get() + "/" + discoveredFiles.get()
+                + " bytes " + done + "/" + total
+                + " skipped " + skippedFiles.get() + " files " + skippedDirectories.get() + " dirs"
+                + " failed " + failedFiles.get()
+                + " rate " + (long) bytesPerSecond / (1024 * 1024) + " MB/s"
+                + " eta " + (etaSeconds < 0 ? "?" : String.format("%02d:%02d:%02d", etaSeconds / 3600, (etaSeconds / 60) % 60, etaSeconds % 60))
+                + (walkFinished ? "" : " (still scanning)"));
+    }
+}
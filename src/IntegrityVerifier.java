@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+// Conferência das cópias por CRC32C (o JDK usa a instrução do processador, a conta sai
+// praticamente de graça no mesmo loop da cópia). O checksum da origem é calculado enquanto
+// ela é lida para a cópia, nunca numa segunda leitura. Uma amostra (verifyPercent) das cópias
+// é lida de volta do destino e comparada; o valor fica gravado no catálogo.
+public class IntegrityVerifier {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final boolean enabled;
+    private final double verifyPercent;
+
+    public IntegrityVerifier(boolean enabled, double verifyPercent) {
+        this.enabled = enabled;
+        this.verifyPercent = verifyPercent;
+    }
+
+    // null quando a conferência está desligada: as cópias seguem sem calcular nada
+    public Checksum newChecksum() {
+        return enabled ? new CRC32C() : null;
+    }
+
+    public boolean shouldReadBack() {
+        return enabled && verifyPercent > 0 && ThreadLocalRandom.current().nextDouble(100) < verifyPercent;
+    }
+
+    public static long checksumOf(Path file) throws IOException {
+        CRC32C checksum = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                checksum.update(buffer);
+                buffer.clear();
+            }
+        }
+        return checksum.getValue();
+    }
+
+    public static long checksumOf(InputStream input) throws IOException {
+        CRC32C checksum = new CRC32C();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = input.read(buffer)) > 0) {
+            checksum.update(buffer, 0, read);
+        }
+        return checksum.getValue();
+    }
+}
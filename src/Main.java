@@ -1,34 +1,59 @@
 import java.io.*;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Checksum;
 
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 public class Main {
 
     private static final List<String> sourcePaths = new ArrayList<>();
-    private static final List<String> subSourcePaths = new ArrayList<>();
+    private static final Map<String, Double> sourceWeights = new HashMap<>(); // "caminho|peso" no BackupSources.txt
 
     private static String baseDestinationPath = "\\\\Truenas\\ti\\vitor\\backup";
 
-    private static WatchService watchService;
-    private static final Map<WatchKey, Path> keyDirectoryMap = new HashMap<>();
-    private static final int timeBetweenRuns = 5; // SECONDS
+    private static WatcherManager watcherManager;
+    private static PathFilter pathFilter = PathFilter.acceptAll(); // regras do BackupFilters.txt
+    private static Thread eventIntake;
+    private static ScheduledExecutorService reconcileExecutor;
+    private static final AtomicBoolean shuttingDown = new AtomicBoolean();
 
-    private static final List<Path> fileThatCannotBeModified = new ArrayList<>();
-    private static final LocalDateTime limitTimeForFileAndFolderReplace = LocalDateTime.now().minusDays(30); // 30 days
-    private static final int limitTimeForFileAndFolderReplaceInDays = 30; // days
+    private static DestinationIndex destinationIndex;
+    private static SnapshotManager snapshotManager;
+    private static final String PARTIAL_SUFFIX = ".gedapart"; // cópia em andamento, trocada por rename no final
 
-    private static final long MAX_BYTES_PER_SECOND = 20 * 1024 * 1024; // caso coloque 20 irá Limitar a 60~70mbps por causa do buffer ser de 4096
+    private static PathControlCatalog pathControlCatalog;
+
+    private static final AsyncLogger logger = AsyncLogger.open(Path.of("Log.txt"));
+    private static final BackupMetrics metrics = new BackupMetrics();
+
+    private static final Properties settings = new Properties();
+    private static CopyPipeline copyPipeline;
+    private static EventCoalescer eventCoalescer;
+
+    private static final long MAX_BYTES_PER_SECOND = 20 * 1024 * 1024; // padrão do bandwidth.*BytesPerSecond, 0 = sem limite
+    private static final int TRANSFER_CHUNK_SIZE = 1024 * 1024; // padrão do transfer.chunkSize
+    private static TransferEngine transferEngine;
+    private static DeltaTransfer deltaTransfer;
+    private static long deltaMinFileSize;
+    private static ChunkStore chunkStore;
+    private static CompressedTransfer compressedTransfer;
+    private static SegmentStore segmentStore;
+    private static IntegrityVerifier integrityVerifier;
 
 
     public static void main(String[] args) throws IOException {
@@ -36,8 +61,65 @@ public class Main {
             createLogArquive();
         }
 
-        if (!verifyArquivePathControlExists()){
-            createArquivePathControl();
+        if(!verifyArquiveSettingsExists()){
+            createArquiveSettings();
+        }
+        readArquiveSettings();
+
+        try{
+            logger.configure(
+                    AsyncLogger.Level.valueOf(getSettingText("log.level", "INFO").toUpperCase()),
+                    getSetting("log.maxBytes", 10L * 1024 * 1024),
+                    (int) getSetting("log.maxFiles", 30));
+        } catch (IllegalArgumentException e){
+            addLog("Error: invalid setting log.level " + e);
+        }
+
+        // Limite de banda único para todas as cópias, com valores diferentes dentro e fora do horário comercial
+        long maxBytesPerSecond = getSetting("transfer.maxBytesPerSecond", MAX_BYTES_PER_SECOND);
+        BandwidthGovernor bandwidthGovernor = new BandwidthGovernor(
+                getSetting("bandwidth.businessHoursBytesPerSecond", maxBytesPerSecond),
+                getSetting("bandwidth.offHoursBytesPerSecond", maxBytesPerSecond),
+                (int) getSetting("bandwidth.businessHoursStart", 8),
+                (int) getSetting("bandwidth.businessHoursEnd", 18),
+                getSetting("bandwidth.burstMillis", 100));
+        transferEngine = new TransferEngine(bandwidthGovernor, (int) getSetting("transfer.chunkSize", TRANSFER_CHUNK_SIZE));
+
+        // Arquivos grandes que mudam pouco: só os blocos alterados são regravados (delta.minFileSize=0 desliga)
+        deltaTransfer = new DeltaTransfer(bandwidthGovernor, (int) getSetting("delta.blockSize", 64 * 1024));
+        deltaMinFileSize = getSetting("delta.minFileSize", 64L * 1024 * 1024);
+
+        // CRC32C calculado durante a cópia e gravado no catálogo; verifyPercent% das cópias são lidas de volta
+        integrityVerifier = new IntegrityVerifier(getSetting("integrity.enabled", 1) == 1,
+                getSetting("integrity.verifyPercent", 1.0));
+
+        // Compressão Deflate antes de enviar, para links lentos (compression.enabled=1 liga)
+        if(getSetting("compression.enabled", 0) == 1){
+            compressedTransfer = new CompressedTransfer(bandwidthGovernor,
+                    (int) getSetting("compression.level", 6),
+                    getSetting("compression.minFileSize", 4096),
+                    readSkipExtensions());
+        }
+
+        // Converte o PathControl.txt antigo para o catálogo binário: automático na primeira execução
+        // ou manual com --migrate-catalog <PathControl.txt>
+        if(args.length == 2 && args[0].equals("--migrate-catalog")){
+            migratePathControl(Path.of(args[1]));
+            return;
+        }
+        if(verifyArquivePathControlExists() && !PathControlCatalog.exists(Path.of("PathControl.bin"))){
+            migratePathControl(Path.of("PathControl.txt"));
+        }
+
+        pathControlCatalog = PathControlCatalog.load(Path.of("PathControl.bin"));
+        addLog("Info: PathControl loaded, entries " + pathControlCatalog.size());
+
+        // Exporta o catálogo no formato texto antigo: --export-catalog <arquivo>
+        if(args.length == 2 && args[0].equals("--export-catalog")){
+            int exported = pathControlCatalog.exportText(Path.of(args[1]));
+            pathControlCatalog.close();
+            addLog("Info: PathControl exported, entries " + exported + " to " + args[1]);
+            return;
         }
 
         if(!verifyArquiveDestinationExists()){
@@ -48,6 +130,53 @@ public class Main {
             baseDestinationPath = readArquiveDestinationPath();
         }
 
+        // destination.format=chunked grava pedaços deduplicados + manifesto em vez de cópias simples
+        if(getSettingText("destination.format", "plain").equals("chunked")){
+            chunkStore = new ChunkStore(Path.of(baseDestinationPath, ".chunks"), transferEngine.getGovernor());
+        }
+
+        // Arquivos pequenos empacotados em segmentos grandes, para destinos com muita latência por arquivo (packing.enabled=1 liga)
+        if(chunkStore == null && getSetting("packing.enabled", 0) == 1){
+            segmentStore = SegmentStore.open(Path.of(baseDestinationPath), transferEngine.getGovernor(),
+                    getSetting("packing.maxFileSize", 64 * 1024),
+                    getSetting("packing.segmentSize", 256L * 1024 * 1024),
+                    getSetting("packing.flushMillis", 2000));
+        }
+
+        // Restaura um arquivo empacotado: --restore-packed <caminho no destino> <arquivo restaurado>
+        if(args.length == 3 && args[0].equals("--restore-packed")){
+            SegmentStore store = segmentStore != null ? segmentStore : SegmentStore.open(Path.of(baseDestinationPath),
+                    transferEngine.getGovernor(), 0, 0, 2000);
+            store.restore(Path.of(args[1]), Path.of(args[2]));
+            store.close();
+            addLog("Info: restored " + args[1] + " to " + args[2]);
+            return;
+        }
+
+        // Restaura uma origem (ou parte dela) pelo catálogo:
+        // --restore <prefixo da origem> [--at <instante>] [--target <pasta>]
+        if(args.length >= 2 && args[0].equals("--restore")){
+            boolean restored = runRestore(args, maxBytesPerSecond);
+            pathControlCatalog.close();
+            addLog(restored ? "Info: restore completed" : "Error: restore finished with failures");
+            return;
+        }
+
+        // Restaura um arquivo comprimido: --restore-compressed <arquivo.gedaz> <arquivo restaurado>
+        if(args.length == 3 && args[0].equals("--restore-compressed")){
+            CompressedTransfer.restore(Path.of(args[1]), Path.of(args[2]));
+            addLog("Info: restored " + args[1] + " to " + args[2]);
+            return;
+        }
+
+        // Restaura um arquivo do formato chunked: --restore-chunks <manifesto> <arquivo restaurado>
+        if(args.length == 3 && args[0].equals("--restore-chunks")){
+            ChunkStore store = new ChunkStore(Path.of(baseDestinationPath, ".chunks"), transferEngine.getGovernor());
+            store.restore(Path.of(args[1]), Path.of(args[2]));
+            addLog("Info: restored " + args[1] + " to " + args[2]);
+            return;
+        }
+
         if(!verifyArquiveSourcesPathsExists()){
             createArquiveSourcesPaths();
         }
@@ -58,39 +187,34 @@ public class Main {
             addLog("Info: SourcesPaths add, " + sourcePaths);
         }
 
-        for(int i = 0; i < sourcePaths.size(); i++) {
-            Path actualPath = Paths.get(sourcePaths.get(i));
-
-            try {
-                // Lista os elementos (subpastas) dentro do diretório
-                List<String> subdirectories = Files.list(actualPath)
-                        .filter(Files::isDirectory) // Filtra apenas subpastas
-                        .map(Path::toString) // Converte Path para String
-                        .toList(); // Filtra para pegar apenas subpastas
-                subSourcePaths.addAll(subdirectories);
-                addLog("Info: add subSourcesPath");
-            } catch (IOException e) {
-                addLog("Error: ao adicionar os source paths" + e);
-            }
+        if(!verifyArquiveFiltersExists()){
+            createArquiveFilters();
         }
+        pathFilter = readArquiveFilters();
 
-        watchService = FileSystems.getDefault().newWatchService();
+        watcherManager = new WatcherManager(FileSystems.getDefault().newWatchService(), pathFilter);
 
-        // Registrar todas as pastas e armazenar a relação WatchKey -> Path
+        // Registrar todas as pastas, em todos os níveis, e armazenar a relação WatchKey -> Path
         for (String sourcePath : sourcePaths) {
             Path path = Paths.get(sourcePath);
-            addArquiveToWatcher(path);
+            watcherManager.registerTree(path);
         }
-
-        // Adiciona os subarquivos
-        for (String subSourcePaths : subSourcePaths) {
-            Path path = Paths.get(subSourcePaths);
-            addArquiveToWatcher(path);
+        addLog("Info: watcher directories " + watcherManager.size() + " failed " + watcherManager.failedRegistrations());
+
+        // Índice dos arquivos que já existem no destino
+        destinationIndex = new DestinationIndex(Path.of(baseDestinationPath));
+        loadDestinationIndex();
+
+        // Gerações de snapshot: a versão antiga de cada arquivo sobrescrito fica em .snapshots (snapshot.enabled=0 desliga)
+        if(getSetting("snapshot.enabled", 1) == 1){
+            snapshotManager = SnapshotManager.open(Path.of(baseDestinationPath),
+                    TimeUnit.HOURS.toMillis(getSetting("snapshot.intervalHours", 24)),
+                    (int) getSetting("snapshot.keepDays", 30),
+                    (int) getSetting("snapshot.keepWeeks", 8),
+                    (int) getSetting("snapshot.keepMonths", 12));
+            addLog("Info: snapshot generation " + snapshotManager.currentGeneration());
         }
 
-        // Adiciona os arquivos que não podem ser modificados.
-        addFilesThatCannotBeModified();
-
         if(verifyFirstBackup()){
             try{
                 performFirstBackup();
@@ -101,73 +225,206 @@ public class Main {
 
         }
 
-        // Criar um ScheduledExecutorService para executar a cada 1 minuto
-        ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-        executor.scheduleAtFixedRate(Main::monitorEvents, 0, timeBetweenRuns, TimeUnit.SECONDS);
+        // Workers que executam as cópias, separados da leitura dos eventos
+        // A fila é ordenada por tamanho, idade da mudança e peso da origem (ver CopyPipeline)
+        copyPipeline = new CopyPipeline(
+                (int) getSetting("copy.workers", 8),
+                (int) getSetting("copy.queueCapacity", 10000),
+                (int) getSetting("copy.perDestinationLimit", 4),
+                getSetting("priority.sizeBytesPerSecond", 10L * 1024 * 1024),
+                getSetting("priority.maxSizeDelayMillis", TimeUnit.MINUTES.toMillis(30)),
+                getSetting("priority.largeFileSize", 64L * 1024 * 1024));
+
+        // Agrupa os eventos de cada arquivo e só manda copiar depois que ele para de mudar
+        eventCoalescer = new EventCoalescer(getSetting("events.quietMillis", 2000),
+                (fullSourcePath, kind, firstEventMillis) -> copyPipeline.submit(baseDestinationPath, "HandlePathCopy " + fullSourcePath,
+                        firstEventMillis, pendingSizeOf(fullSourcePath, kind), sourceWeightFor(fullSourcePath),
+                        () -> {
+                            handlePathCopy(fullSourcePath, kind);
+                            metrics.recordEventToBackup(firstEventMillis);
+                        }));
+
+        // Contadores e histogramas no JMX e em http://127.0.0.1:<metrics.httpPort>/metrics (0 desliga o HTTP)
+        metrics.registerGauge("geda_pending_events", "File changes waiting in the event coalescer", eventCoalescer::pendingCount);
+        metrics.registerGauge("geda_received_events", "File events received from the watcher", eventCoalescer::receivedEvents);
+        metrics.registerGauge("geda_emitted_events", "File changes sent to the copy pipeline after coalescing", eventCoalescer::emittedEvents);
+        metrics.registerGauge("geda_copy_queue_depth", "Copy jobs waiting for a worker", copyPipeline::pendingJobs);
+        metrics.registerGauge("geda_active_copies", "Copy jobs running", copyPipeline::activeJobs);
+        metrics.registerGauge("geda_catalog_entries", "Entries in the path control catalog", pathControlCatalog::size);
+        metrics.registerGauge("geda_watched_directories", "Directories registered in the watcher", watcherManager::size);
+        metrics.registerGauge("geda_watcher_failed_registrations", "Directories the watcher could not register", watcherManager::failedRegistrations);
+        metrics.registerGauge("geda_watcher_rescans_total", "Rescans after lost watcher events", watcherManager::rescans);
+        if(segmentStore != null){
+            metrics.registerGauge("geda_packed_files", "Small files stored in destination segments", segmentStore::size);
+        }
+        metrics.registerGauge("geda_bandwidth_limit_bytes_per_second", "Current bandwidth limit, 0 means unlimited", transferEngine.getGovernor()::currentRate);
+        metrics.registerGauge("geda_bandwidth_measured_bytes_per_second", "Bandwidth measured by the governor", transferEngine.getGovernor()::measuredRate);
+        metrics.start(getSetting("metrics.jmx", 1) == 1, (int) getSetting("metrics.httpPort", 9400));
+
+        // Conferência periódica origem x destino para pegar o que o watcher perdeu (0 desliga)
+        long reconcileIntervalMinutes = getSetting("reconcile.intervalMinutes", 360);
+        reconcileExecutor = Executors.newSingleThreadScheduledExecutor();
+        if(reconcileIntervalMinutes > 0){
+            reconcileExecutor.scheduleWithFixedDelay(Main::runReconciliation,
+                    reconcileIntervalMinutes, reconcileIntervalMinutes, TimeUnit.MINUTES);
+        }
+
+        // Parada limpa (Ctrl+C, fim do serviço): o shutdown do Main fecha o log por último
+        logger.detachShutdownHook();
+        Runtime.getRuntime().addShutdownHook(new Thread(Main::shutdown, "geda-shutdown"));
+
+        // Os eventos são lidos assim que chegam (take bloqueia), sem acordar a cada X segundos
+        eventIntake = new Thread(Main::monitorEvents, "watch-intake");
+        eventIntake.start();
 
-        // O programa vai rodar indefinidamente.
+        // O programa roda até o WatchService ser fechado pelo shutdown
         try {
-            Thread.sleep(Long.MAX_VALUE); // Mantém o programa em execução
+            eventIntake.join();
         } catch (InterruptedException e) {
             addLog("Error: thread " + e);
             Thread.currentThread().interrupt(); // Lida com a interrupção do thread
         } finally {
-            addLog("End: thread finished");
-            executor.shutdown(); // Fecha o executor ao final
+            shutdown();
         }
     }
 
+    // Ordem importa: para de receber eventos, entrega o que estava no debounce, termina as
+    // cópias da fila e só então fecha segmentos, catálogo e log. Roda uma vez só, seja pelo
+    // shutdown hook ou pelo fim do main.
+    private static void shutdown() {
+        if(!shuttingDown.compareAndSet(false, true)){
+            return;
+        }
+        addLog("Info: shutting down");
+
+        reconcileExecutor.shutdownNow();
+        watcherManager.shutdown(); // fecha o WatchService, o take() da thread de eventos sai
+        try{
+            eventIntake.join(TimeUnit.SECONDS.toMillis(5));
+            reconcileExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        eventCoalescer.shutdown();
+        copyPipeline.shutdown(60);
+        metrics.shutdown();
+        if(segmentStore != null){
+            try{
+                segmentStore.close();
+            } catch (IOException e){
+                addLog("Error: segment store close " + e);
+            }
+        }
+        try{
+            pathControlCatalog.close();
+        } catch (IOException e){
+            addLog("Error: PathControl close " + e);
+        }
+        addLog("End: thread finished");
+        logger.close();
+    }
+
     private static void monitorEvents() {
-        try {
+        WatchService watchService = watcherManager.getWatchService();
+        while (true) {
             WatchKey key;
-            while ((key = watchService.poll()) != null) {
-                Path sourceDirectory = keyDirectoryMap.get(key);  // Obter o diretório de origem correspondente
-                for (WatchEvent<?> event : key.pollEvents()) {
-                    if (event.context().toString().charAt(0) != '~') {
-                        Path sourcePath = (Path) event.context();
-                        Path fullSourcePath = sourceDirectory.resolve(sourcePath);
-
-                        try {
-                            handlePathCopy(fullSourcePath, event);
-                        } catch (Exception e) {
-                            addLog("Error: monitor events HandlePathCopy " + e);
-                        }
-                    }
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException e) {
+                return; // shutdown
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                handleWatchKey(key);
+            } catch (Exception e) {
+                addLog("Error: monitor events " + e);
+            }
+        }
+    }
+
+    private static void handleWatchKey(WatchKey key) {
+        Path sourceDirectory = watcherManager.directoryOf(key);  // Obter o diretório de origem correspondente
+        if (sourceDirectory == null) {
+            key.cancel(); // chave de uma pasta que já foi removida
+            return;
+        }
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // O sistema perdeu eventos dessa pasta: varre de novo só essa árvore
+                watcherManager.scheduleRescan(sourceDirectory, Main::rescanFile);
+                continue;
+            }
+
+            Path fullSourcePath = sourceDirectory.resolve((Path) event.context());
+            boolean directory = Files.isDirectory(fullSourcePath) || watcherManager.isWatched(fullSourcePath);
+            if (directory ? pathFilter.acceptsDirectory(fullSourcePath) : pathFilter.acceptsPath(fullSourcePath)) {
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(fullSourcePath)) {
+                    // Registra na hora para não perder o que for criado dentro dela durante o debounce
+                    watcherManager.registerTree(fullSourcePath);
+                } else if (event.kind() == ENTRY_DELETE && watcherManager.isWatched(fullSourcePath)) {
+                    watcherManager.unregisterTree(fullSourcePath);
                 }
-                key.reset();
+
+                // A cópia roda nos workers depois da janela de debounce, aqui só enfileira
+                eventCoalescer.offer(fullSourcePath, event.kind());
             }
-        } catch (Exception e) {
-            addLog("Error: monitor events " + e);
+        }
+
+        if (!key.reset()) {
+            watcherManager.invalidate(key, Main::rescanFile);
         }
     }
 
-    private static void handlePathCopy(Path fullSourcePath, WatchEvent<?> event) throws Exception {
+    // Usado nas varreduras depois de OVERFLOW: só manda para backup o que mudou desde a última cópia.
+    // O WatcherManager já aplicou o PathFilter.
+    private static void rescanFile(Path file){
+        try{
+            PathControlCatalog.Entry entry = pathControlCatalog.get(file);
+            if(entry == null || entry.deleted()){
+                eventCoalescer.offer(file, ENTRY_CREATE);
+            } else if(Files.getLastModifiedTime(file).toInstant().isAfter(entry.timestamp())){
+                eventCoalescer.offer(file, ENTRY_MODIFY);
+            }
+        } catch (IOException e){
+            addLog("Error: rescan file " + file + " " + e);
+        }
+    }
+
+    private static void handlePathCopy(Path fullSourcePath, WatchEvent.Kind<?> kind) throws Exception {
         for(int i = 0; i < sourcePaths.size(); i++){
             Path basePath = Path.of(sourcePaths.get(i));
             if(fullSourcePath.startsWith((basePath))){
-                String relativePath = fullSourcePath.toString()
-                        .substring(basePath.toString().length());
-                Path destination = Path.of(baseDestinationPath + "\\" + fullSourcePath.getFileName());
-                if(event.kind() == ENTRY_CREATE){
+                Path destination = destinationRootFor(basePath).resolve(basePath.relativize(fullSourcePath));
+                if(kind == ENTRY_DELETE){
+                    handlePathDelete(fullSourcePath);
+                } else if(kind == ENTRY_CREATE || kind == ENTRY_MODIFY){
                     try {
                         if(Files.isDirectory(fullSourcePath)){
-                            try{
-                                addLog("Info: recursive backup");
-                                copyRecursive(fullSourcePath, destination);
-                                recursiveAddArquiveToWatcher(fullSourcePath);
-                            } catch (Exception e ){
-                                addLog("Error: recursive add " + e);
+                            // MODIFY de pasta só indica mudança nos filhos, que têm seus próprios eventos
+                            if(kind == ENTRY_CREATE){
+                                try{
+                                    addLog("Info: recursive backup");
+                                    copyRecursive(fullSourcePath, destination);
+                                    recursiveAddArquiveToWatcher(fullSourcePath);
+                                } catch (Exception e ){
+                                    addLog("Error: recursive add " + e);
+                                }
                             }
-                        } else if(checkIfCanUpdateFile(fullSourcePath)){
-                            Path newDestination = Path.of(baseDestinationPath + "\\" + fullSourcePath.getParent().getFileName() + "\\" + fullSourcePath.getFileName());
+                        } else {
+                            // Tamanho e idade só dá para conferir agora, o evento traz apenas o nome
+                            if(!pathFilter.acceptsFile(fullSourcePath, Files.readAttributes(fullSourcePath, BasicFileAttributes.class))){
+                                continue;
+                            }
+                            Files.createDirectories(destination.getParent());
                             Instant timeStamp = Instant.now();
-                            addSourcePathControlArquive(fullSourcePath, newDestination, timeStamp);
-                            copyFileWithLimit(fullSourcePath, newDestination);
-                            addLog("Info: File Backup. Source " + fullSourcePath + " Destination " + newDestination);
-                        } else if(!checkIfCanUpdateFile(fullSourcePath)){
-                            Path newDestination = Path.of(destination.getParent() + "\\Novo - " + relativePath.replace("\\", ""));
-                            Files.copy(fullSourcePath, newDestination, StandardCopyOption.REPLACE_EXISTING);
-                            addLog("Info: Archive older than 30 days backup Source: " + fullSourcePath + " new destination " + newDestination);
+                            // O catálogo só é atualizado depois que a cópia terminou e foi conferida
+                            long checksum = transferFile(fullSourcePath, destination);
+                            addSourcePathControlArquive(fullSourcePath, destination, timeStamp, checksum);
+                            addLog("Info: File Backup. Source " + fullSourcePath + " Destination " + destination);
                         }
 
                     } catch (Exception e) {
@@ -179,40 +436,345 @@ public class Main {
         }
     }
 
-    // Função para copiar o arquivo com limite de velocidade
-    private static void copyFileWithLimit(Path source, Path destination) throws IOException, InterruptedException {
+    private static boolean runRestore(String[] args, long maxBytesPerSecond) throws IOException {
+        Path prefix = Path.of(args[1]);
+        Instant at = null;
+        Path target = null;
+        for(int i = 2; i + 1 < args.length; i += 2){
+            switch (args[i]){
+                case "--at" -> at = parseRestoreInstant(args[i + 1]);
+                case "--target" -> target = Path.of(args[i + 1]);
+                default -> addLog("Error: restore unknown option " + args[i]);
+            }
+        }
 
-        //pode ser substituido por:
-        //Files.copy(sourcePath, destinatioPath, StandardCopyOption.REPLACE_EXISTING);
+        // Limite de banda próprio da restauração (restore.maxBytesPerSecond, 0 = sem limite)
+        BandwidthGovernor restoreGovernor = new BandwidthGovernor(
+                getSetting("restore.maxBytesPerSecond", maxBytesPerSecond),
+                getSetting("restore.maxBytesPerSecond", maxBytesPerSecond),
+                0, 0, getSetting("bandwidth.burstMillis", 100));
+
+        // Os formatos podem ter mudado desde a cópia: abre o que existir no destino
+        Path basePath = Path.of(baseDestinationPath);
+        SegmentStore segments = segmentStore;
+        if(segments == null && Files.exists(basePath.resolve(SegmentStore.SEGMENTS_FOLDER))){
+            segments = SegmentStore.open(basePath, restoreGovernor, 0, 0, 2000);
+        }
+        ChunkStore chunks = chunkStore;
+        if(chunks == null && Files.exists(basePath.resolve(".chunks"))){
+            chunks = new ChunkStore(basePath.resolve(".chunks"), restoreGovernor);
+        }
 
-        try (InputStream in = new BufferedInputStream(Files.newInputStream(source));
-             OutputStream out = new BufferedOutputStream(Files.newOutputStream(destination))) {
-            byte[] buffer = new byte[4096];
-            long startTime = System.currentTimeMillis();
-            long bytesTransferred = 0;
-            int bytesRead;
+        RestoreEngine engine = new RestoreEngine(basePath, pathControlCatalog, segments, chunks, restoreGovernor,
+                (int) getSetting("transfer.chunkSize", TRANSFER_CHUNK_SIZE),
+                (int) getSetting("restore.threads", 8));
+        try{
+            return engine.restore(prefix, at, target);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if(segments != null){
+                segments.close();
+            }
+        }
+    }
 
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-                bytesTransferred += bytesRead;
+    // Aceita 2024-05-10T14:30:00Z, 2024-05-10T14:30 (hora local) ou 2024-05-10 (início do dia)
+    private static Instant parseRestoreInstant(String value){
+        try{
+            return Instant.parse(value);
+        } catch (DateTimeParseException e){
+            try{
+                return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant();
+            } catch (DateTimeParseException notDateTime){
+                return LocalDate.parse(value).atStartOfDay(ZoneId.systemDefault()).toInstant();
+            }
+        }
+    }
 
-                // Se já transferiu mais do que o limite de bytes por segundo
-                if (bytesTransferred >= MAX_BYTES_PER_SECOND) {
-                    long currentTime = System.currentTimeMillis();
-                    long elapsedTime = currentTime - startTime;
+    // Tamanho usado para priorizar o job; pastas e remoções entram como pequenos
+    private static long pendingSizeOf(Path fullSourcePath, WatchEvent.Kind<?> kind){
+        if(kind == ENTRY_DELETE){
+            return 0;
+        }
+        try{
+            BasicFileAttributes attrs = Files.readAttributes(fullSourcePath, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs.size() : 0;
+        } catch (IOException e){
+            return 0;
+        }
+    }
 
-                    // Se passou menos de 1 segundo, aguarde o tempo restante
-                    if (elapsedTime < 1000) {
-                        Thread.sleep(1000 - elapsedTime);
-                    }
+    private static double sourceWeightFor(Path fullSourcePath){
+        for(String sourcePath : sourcePaths){
+            if(fullSourcePath.startsWith(Path.of(sourcePath))){
+                return sourceWeights.getOrDefault(sourcePath, 1.0);
+            }
+        }
+        return 1.0;
+    }
+
+    // Cada origem vai para uma pasta com o mesmo nome dentro do destino; dentro dela a árvore é mantida
+    private static Path destinationRootFor(Path sourceRoot){
+        return Path.of(baseDestinationPath + "\\" + sourceRoot.getFileName().toString());
+    }
 
-                    // Reinicie o contador
-                    startTime = System.currentTimeMillis();
-                    bytesTransferred = 0;
+    // Compara todas as origens com o destino e manda para backup só o que estiver diferente
+    private static void runReconciliation(){
+        if(chunkStore != null){
+            addLog("Info: reconcile skipped, destination.format=chunked stores manifests instead of copies");
+            return;
+        }
+
+        try{
+            List<Path> roots = new ArrayList<>();
+            List<Path> destinationRoots = new ArrayList<>();
+            for(String sourcePath : sourcePaths){
+                roots.add(Path.of(sourcePath));
+                destinationRoots.add(destinationRootFor(Path.of(sourcePath)));
+            }
+
+            ReconciliationScanner scanner = new ReconciliationScanner(
+                    (int) getSetting("reconcile.threads", 4),
+                    getSetting("reconcile.modifiedToleranceMillis", 2000),
+                    path -> !DeltaTransfer.isSignatureFile(path) && !path.getFileName().toString().endsWith(PARTIAL_SUFFIX),
+                    pathFilter,
+                    Main::handleReconciliationDifference);
+            scanner.run(roots, destinationRoots);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt(); // shutdown
+        } catch (Exception e){
+            addLog("Error: reconcile " + e);
+        }
+    }
+
+    private static void handleReconciliationDifference(Path sourceRoot, Path relativePath, ReconciliationScanner.Difference difference){
+        Path fullSourcePath = sourceRoot.resolve(relativePath);
+
+        // Arquivos empacotados não existem como arquivo no destino
+        if(segmentStore != null && difference != ReconciliationScanner.Difference.EXTRA){
+            try{
+                Path destination = destinationRootFor(sourceRoot).resolve(relativePath);
+                if(segmentStore.isCurrent(destination, Files.getLastModifiedTime(fullSourcePath).toMillis())){
+                    return;
                 }
+            } catch (IOException e){
+                addLog("Error: reconcile packed " + e);
             }
-        } catch(Exception e){
-            addLog("Error:  copyFileWithLimit " + e);
+        }
+
+        switch (difference){
+            case MISSING -> eventCoalescer.offer(fullSourcePath, ENTRY_CREATE);
+            case CHANGED -> eventCoalescer.offer(fullSourcePath, ENTRY_MODIFY);
+            case EXTRA -> {
+                // Ainda existe na origem mas saiu pelo filtro (tamanho ou idade): a cópia antiga fica
+                if(Files.exists(fullSourcePath)){
+                    return;
+                }
+                // Só existe no destino: se o catálogo ainda acha que a origem existe, registra a remoção
+                PathControlCatalog.Entry entry = pathControlCatalog.get(fullSourcePath);
+                if(entry != null && !entry.deleted()){
+                    eventCoalescer.offer(fullSourcePath, ENTRY_DELETE);
+                }
+            }
+        }
+    }
+
+    // Marca o arquivo (ou todos os arquivos da pasta) como apagado no PathControl.
+    // Com delete.retention=1 a cópia no destino é movida para a pasta .retention.
+    private static void handlePathDelete(Path fullSourcePath){
+        try{
+            Instant timeStamp = Instant.now();
+            List<PathControlCatalog.Entry> deletedEntries = new ArrayList<>();
+
+            PathControlCatalog.Entry entry = pathControlCatalog.markDeleted(fullSourcePath, timeStamp);
+            if(entry != null){
+                deletedEntries.add(entry);
+            } else{
+                // Pode ter sido uma pasta
+                for(PathControlCatalog.Entry child : pathControlCatalog.entriesUnder(fullSourcePath)){
+                    pathControlCatalog.markDeleted(Path.of(child.source()), timeStamp);
+                    deletedEntries.add(child);
+                }
+            }
+
+            for(PathControlCatalog.Entry deleted : deletedEntries){
+                addLog("Info: File deleted. Source " + deleted.source());
+                if(getSetting("delete.retention", 0) == 1){
+                    moveToRetention(Path.of(deleted.destination()));
+                }
+            }
+        } catch (Exception e){
+            addLog("Error: handle delete " + e);
+        }
+    }
+
+    private static void moveToRetention(Path destination){
+        if(segmentStore != null && segmentStore.get(destination) != null){
+            // A versão empacotada sai do segmento como arquivo comum na pasta de retenção
+            try{
+                segmentStore.restore(destination, retentionPathFor(destination));
+                segmentStore.remove(destination);
+                addLog("Info: moved to retention packed " + destination);
+            } catch (IOException e){
+                addLog("Error: moveToRetention packed " + e);
+            }
+        }
+        moveFileToRetention(destination);
+        moveFileToRetention(CompressedTransfer.compressedPathFor(destination));
+        destinationIndex.remove(destination);
+    }
+
+    private static void moveFileToRetention(Path destination){
+        try{
+            if(Files.notExists(destination)){
+                return;
+            }
+
+            Path retentionDestination = retentionPathFor(destination);
+            Files.createDirectories(retentionDestination.getParent());
+            Files.move(destination, retentionDestination, StandardCopyOption.REPLACE_EXISTING);
+            addLog("Info: moved to retention " + destination + " -> " + retentionDestination);
+        } catch (Exception e){
+            addLog("Error: moveToRetention " + e);
+        }
+    }
+
+    private static Path retentionPathFor(Path destination){
+        Path basePath = Path.of(baseDestinationPath);
+        Path relativeDestination = destination.startsWith(basePath)
+                ? basePath.relativize(destination)
+                : destination.getFileName();
+        String day = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+        return basePath.resolve(".retention").resolve(day).resolve(relativeDestination);
+    }
+
+    // Já está no segmento com essa data de modificação (o backup inicial pula sem consultar o destino)
+    static boolean isPackedCurrent(Path destination, long lastModifiedMillis){
+        return segmentStore != null && segmentStore.isCurrent(destination, lastModifiedMillis);
+    }
+
+    // Copia e confere; erros (inclusive checksum diferente) sobem para quem chamou, que não
+    // deve registrar a cópia no catálogo. Devolve o CRC32C do conteúdo, ou -1 sem conferência.
+    // Uma conferência que falha é repetida uma vez antes de desistir.
+    private static long transferFile(Path source, Path destination) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        long checksum;
+        try{
+            try{
+                checksum = transferFileWithoutMetrics(source, destination, false);
+            } catch (ChecksumMismatchException e){
+                addLog("Error: " + e.getMessage() + ", copying again");
+                checksum = transferFileWithoutMetrics(source, destination, true);
+            }
+        } catch (IOException | InterruptedException e){
+            metrics.recordCopyFailure();
+            throw e;
+        }
+        metrics.recordCopy(Files.size(source), System.nanoTime() - startNanos);
+        return checksum;
+    }
+
+    private static long transferFileWithoutMetrics(Path source, Path destination, boolean forceReadBack) throws IOException, InterruptedException {
+        Checksum checksum = integrityVerifier.newChecksum();
+        boolean readBack = checksum != null && (forceReadBack || integrityVerifier.shouldReadBack());
+
+        if(chunkStore != null){
+            if(snapshotManager != null){
+                snapshotManager.preserve(ChunkStore.manifestPathFor(destination));
+            }
+            // Os pedaços já são conferidos pelo SHA-256 na restauração, não há leitura de volta aqui
+            long written = chunkStore.store(source, destination, checksum);
+            addLog("Info: chunked copy " + source + " new chunk bytes " + written);
+            return checksum == null ? -1 : checksum.getValue();
+        }
+
+        if(segmentStore != null){
+            SegmentStore.Location previousPacked = segmentStore.get(destination);
+            if(snapshotManager != null && previousPacked != null){
+                snapshotManager.preservePacked(destination, previousPacked);
+            }
+            if(segmentStore.accepts(Files.size(source))){
+                segmentStore.store(source, destination, checksum);
+                if(readBack){
+                    verifyCopy(destination, checksum, segmentStore.contentChecksum(destination));
+                }
+                destinationIndex.update(destination, Files.getLastModifiedTime(source).toMillis());
+                return checksum == null ? -1 : checksum.getValue();
+            }
+            // Cresceu além do packing.maxFileSize: a versão empacotada deixa de valer
+            segmentStore.remove(destination);
+        }
+
+        if(compressedTransfer != null){
+            if(compressedTransfer.shouldCompress(source, Files.size(source))){
+                preserveVersion(destination, false);
+                long written = compressedTransfer.copy(source, destination, checksum);
+                addLog("Info: compressed copy " + source + " bytes written " + written);
+                if(readBack){
+                    verifyCopy(destination, checksum, CompressedTransfer.contentChecksum(CompressedTransfer.compressedPathFor(destination)));
+                }
+                destinationIndex.update(destination, Files.getLastModifiedTime(source).toMillis());
+                return checksum == null ? -1 : checksum.getValue();
+            }
+            preserveVersion(destination, false);
+            // Deixou de valer a pena comprimir: a versão .gedaz antiga sai
+            Files.deleteIfExists(CompressedTransfer.compressedPathFor(destination));
+        }
+
+        if(deltaMinFileSize > 0 && Files.size(source) >= deltaMinFileSize){
+            // A cópia delta altera o próprio arquivo: o snapshot precisa de uma cópia, não de um hard link
+            preserveVersion(destination, true);
+            long written = deltaTransfer.copy(source, destination, checksum);
+            addLog("Info: delta copy " + source + " bytes written " + written);
+        } else if(destinationIndex.contains(destination)){
+            // Sobrescrita: grava ao lado e troca por rename, o destino nunca fica pela metade
+            // e o hard link do snapshot continua apontando para a versão antiga
+            preserveVersion(destination, false);
+            Path temporary = destination.resolveSibling(destination.getFileName() + PARTIAL_SUFFIX);
+            try{
+                transferEngine.copy(source, temporary, checksum);
+                Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e){
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        } else {
+            transferEngine.copy(source, destination, checksum);
+        }
+        if(readBack){
+            verifyCopy(destination, checksum, IntegrityVerifier.checksumOf(destination));
+        }
+        // A cópia fica com a data de modificação da origem, a mesma que a varredura do destino lê ao iniciar
+        destinationIndex.update(destination, Files.getLastModifiedTime(source).toMillis());
+        return checksum == null ? -1 : checksum.getValue();
+    }
+
+    // Guarda no snapshot atual a versão que está no destino antes de ela ser substituída
+    private static void preserveVersion(Path destination, boolean inPlace) throws IOException {
+        if(snapshotManager == null || !destinationIndex.contains(destination)){
+            return;
+        }
+        snapshotManager.preserve(destination, inPlace);
+        if(compressedTransfer != null){
+            snapshotManager.preserve(CompressedTransfer.compressedPathFor(destination), inPlace);
+        }
+    }
+
+    private static void verifyCopy(Path destination, Checksum expected, long actual) throws ChecksumMismatchException {
+        boolean matches = expected.getValue() == actual;
+        metrics.recordVerification(matches);
+        if(!matches){
+            throw new ChecksumMismatchException("checksum mismatch " + destination + " expected "
+                    + Long.toHexString(expected.getValue()) + " read back " + Long.toHexString(actual));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class ChecksumMismatchException extends IOException {
+        ChecksumMismatchException(String message){
+            super(message);
         }
     }
 
@@ -225,6 +787,9 @@ public class Main {
         Files.walkFileTree(source, new SimpleFileVisitor<Path>(){
           @Override
           public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+              if(!dir.equals(source) && !pathFilter.acceptsDirectory(dir)){
+                  return FileVisitResult.SKIP_SUBTREE; // pasta excluída: nem é percorrida
+              }
               Path destinationdDir = destination.resolve(source.relativize(dir));
                   if(Files.notExists(destinationdDir) && Files.isDirectory(source)){
                   Files.createDirectories(destinationdDir);
@@ -233,25 +798,13 @@ public class Main {
           }
 
           public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException{
-              if(checkIfCanUpdateFile(source)){
-                  Instant timeStamp = Instant.now();
-                  Path destinationFile = destination.resolve(source.relativize(file));
-                  addSourcePathControlArquive(file, destinationFile, timeStamp);
-                  try {
-                      addLog("Info: Recursive add file: " + file + " to destination " + destination);
-                      copyFileWithLimit(file,destinationFile);
-                  } catch (InterruptedException e) {
-                      addLog("Error:  InternalCopyRecursive1 " + e);
-                  }
-              } else{
-                  String relativePath = String.valueOf(source.relativize(file));
-                  Path newDestination = Path.of(destination.getParent() + "\\Novo - " + relativePath.replace("\\", ""));
-                  try {
-                      addLog("Info: Archive older than 30 days backup Source: " + relativePath + " new destination " + newDestination);
-                      copyFileWithLimit(file,newDestination);
-                  } catch (InterruptedException e) {
-                      addLog("Error:  InternalCopyRecursive2 " + e);
-                  }
+              if(!pathFilter.acceptsFile(file, attrs)){
+                  return FileVisitResult.CONTINUE;
+              }
+              try {
+                  backupTreeFile(source, destination, file);
+              } catch (IOException | InterruptedException e) {
+                  addLog("Error:  InternalCopyRecursive " + e);
               }
 
               return FileVisitResult.CONTINUE;
@@ -260,74 +813,31 @@ public class Main {
         });
     }
 
-    private static void addArquiveToWatcher(Path path) throws IOException {
-        WatchKey key = path.register(
-                watchService,
-                ENTRY_CREATE,
-                StandardWatchEventKinds.ENTRY_MODIFY,
-                StandardWatchEventKinds.ENTRY_DELETE);
-        keyDirectoryMap.put(key, path);
+    // Copia um arquivo de uma árvore (source) para o mesmo caminho relativo em destination.
+    // Usado pelo copyRecursive e pelo backup inicial paralelo.
+    static void backupTreeFile(Path source, Path destination, Path file) throws IOException, InterruptedException {
+        Path destinationFile = destination.resolve(source.relativize(file));
+        Instant timeStamp = Instant.now();
+        addLog("Info: Recursive add file: " + file + " to destination " + destination);
+        long checksum = transferFile(file,destinationFile);
+        addSourcePathControlArquive(file, destinationFile, timeStamp, checksum);
     }
 
     private static void recursiveAddArquiveToWatcher(Path path) throws IOException {
         if (Files.isDirectory(path)) {
-            // Adiciona o diretório atual ao Watcher
-            WatchKey key = path.register(
-                    watchService,
-                    ENTRY_CREATE,
-                    StandardWatchEventKinds.ENTRY_MODIFY,
-                    StandardWatchEventKinds.ENTRY_DELETE);
-            keyDirectoryMap.put(key, path);
-
-            // Adiciona recursivamente todos os subdiretórios e arquivos ao Watcher
-            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    WatchKey subDirKey = dir.register(
-                            watchService,
-                            ENTRY_CREATE,
-                            StandardWatchEventKinds.ENTRY_MODIFY,
-                            StandardWatchEventKinds.ENTRY_DELETE);
-                    keyDirectoryMap.put(subDirKey, dir);
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } else {
-            // Adiciona apenas o arquivo se não for um diretório
-            WatchKey key = path.register(
-                    watchService,
-                    ENTRY_CREATE,
-                    StandardWatchEventKinds.ENTRY_MODIFY,
-                    StandardWatchEventKinds.ENTRY_DELETE);
-            keyDirectoryMap.put(key, path);
+            // Adiciona o diretório atual e todos os subdiretórios ao Watcher
+            watcherManager.registerTree(path);
         }
     }
 
-    private static void addSourcePathControlArquive(Path sourcePath, Path destinationPath, Instant timestamp){
+    private static void addSourcePathControlArquive(Path sourcePath, Path destinationPath, Instant timestamp, long checksum){
 
         try{
-
-            BufferedReader reader = new BufferedReader(new FileReader("PathControl.txt"));
-            String line;
-            boolean arquivoEstaNoPathControl = false;
-            while((line = reader.readLine()) != null){
-                String[] params = line.split("\\|");
-                if(params.length > 0 && params[0].equals(sourcePath.toString())){
-                    arquivoEstaNoPathControl = true;
-                }
-
-            }
-
-            if(!arquivoEstaNoPathControl){
-                File file = new File("PathControl.txt");
-
-                FileWriter fileWriter = new FileWriter(file, true);
-                PrintWriter printWriter = new PrintWriter(fileWriter);
-
-                printWriter.println(sourcePath + "|" + destinationPath + "|" + timestamp);
-                printWriter.close();
+            PathControlCatalog.Entry entry = pathControlCatalog.get(sourcePath);
+            if(entry == null || entry.deleted()){
+                pathControlCatalog.put(sourcePath, destinationPath, timestamp, checksum);
             } else{
-                modifyTimestampFromSourcePathControlArquive(sourcePath, timestamp);
+                modifyTimestampFromSourcePathControlArquive(sourcePath, timestamp, checksum);
             }
 
         } catch (Exception e){
@@ -336,70 +846,104 @@ public class Main {
 
     }
 
-    private static void addLog(String log){
-
-        String arquiveName = "Log.txt";
-
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss");
-        String formattedDateTime = now.format(formatter);
-
-        log = formattedDateTime + " - " + log;
+    static void addLog(String log){
+        // Só enfileira; a gravação no Log.txt é feita em lote pela thread do AsyncLogger
+        logger.log(log);
+    }
 
-        try (FileWriter writer = new FileWriter(arquiveName, true)) { // 'true' ativa o modo append
-            writer.write(log + System.lineSeparator()); // Adiciona mensagem e quebra de linha
-        } catch (IOException e) {
-            System.out.println("Erro no add log " + e);
+    // Carrega no índice todos os arquivos do destino com a data de modificação.
+    private static void loadDestinationIndex(){
+        Path basePath = Path.of(baseDestinationPath);
+        if(Files.notExists(basePath)){
+            return;
         }
-    }
 
-    private static void addFilesThatCannotBeModified(){
         try {
-            // Listando arquivos e pastas na pasta
-            Files.walk(Path.of(baseDestinationPath)).forEach(path -> {
-                try {
-                    // Obtém a data de modificação (funciona para arquivos e pastas)
-                    BasicFileAttributes attr = Files.readAttributes(path, BasicFileAttributes.class);
-                    LocalDateTime fileModifiedTime = attr.lastModifiedTime()
-                            .toInstant().atZone(ZoneId.systemDefault()).toLocalDateTime();
-
-                    // Verifica se o arquivo ou pasta foi modificado há mais de 30 dias
-                    if (fileModifiedTime.isBefore(limitTimeForFileAndFolderReplace) && Files.isRegularFile(path)) {
-                        fileThatCannotBeModified.add(path);
+            Files.walkFileTree(basePath, new SimpleFileVisitor<Path>(){
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if(dir.equals(basePath.resolve(".chunks")) || dir.equals(basePath.resolve(".retention"))
+                            || dir.equals(basePath.resolve(SegmentStore.SEGMENTS_FOLDER))
+                            || dir.equals(basePath.resolve(SnapshotManager.SNAPSHOTS_FOLDER))){
+                        return FileVisitResult.SKIP_SUBTREE;
                     }
-                } catch (IOException e) {
-                    addLog("addFilesThatCannotBeModified1 " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if(attrs.isRegularFile() && !DeltaTransfer.isSignatureFile(path) && !path.getFileName().toString().endsWith(PARTIAL_SUFFIX)){
+                        // Arquivos comprimidos entram com o nome original
+                        Path indexed = CompressedTransfer.isCompressedFile(path) ? CompressedTransfer.originalPathFor(path) : path;
+                        destinationIndex.update(indexed, attrs.lastModifiedTime().toMillis());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    addLog("Error: loadDestinationIndex " + e);
+                    return FileVisitResult.CONTINUE;
                 }
             });
         } catch (IOException e) {
-            addLog("addFilesThatCannotBeModified2 " + e);
+            addLog("Error: loadDestinationIndex " + e);
+        }
+        if(segmentStore != null){
+            segmentStore.forEach((destination, location) -> destinationIndex.update(destination, location.lastModifiedMillis()));
+        }
+        addLog("Info: destination index files " + destinationIndex.size());
+    }
+
+    // compression.skipExtensions=zip,jpg,... (sem ponto); sem a chave usa a lista padrão
+    private static Set<String> readSkipExtensions(){
+        String value = getSettingText("compression.skipExtensions", "");
+        if(value.isBlank()){
+            return CompressedTransfer.DEFAULT_SKIP_EXTENSIONS;
         }
+        Set<String> extensions = new HashSet<>();
+        for(String extension : value.split(",")){
+            if(!extension.isBlank()){
+                extensions.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return extensions;
     }
 
-    private static boolean checkIfCanUpdateFile(Path sourcePath) throws IOException {
+    static long getSetting(String key, long defaultValue){
+        String value = settings.getProperty(key);
+        if(value == null || value.isBlank()){
+            return defaultValue;
+        }
+
         try{
-            BufferedReader reader = new BufferedReader(new FileReader("PathControl.txt"));
-            String line;
-            while((line = reader.readLine()) != null){
-                String[] params = line.split("\\|");
-                if(params.length > 0 && params[0].equals(sourcePath.toString())){
-                    Instant actualFileTime = Files.getLastModifiedTime(sourcePath).toInstant();
-                    Instant lastModificationInstant = Instant.parse(params[2]);
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e){
+            addLog("Error: invalid setting " + key + "=" + value);
+            return defaultValue;
+        }
+    }
 
-                    long daysBetween = Duration.between(lastModificationInstant, actualFileTime).toMinutes();
+    static double getSetting(String key, double defaultValue){
+        String value = settings.getProperty(key);
+        if(value == null || value.isBlank()){
+            return defaultValue;
+        }
 
-                    if(daysBetween >= limitTimeForFileAndFolderReplaceInDays){
-                        return false;
-                    } else{
-                        return true;
-                    }
-                }
-            }
+        try{
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e){
+            addLog("Error: invalid setting " + key + "=" + value);
+            return defaultValue;
+        }
+    }
 
-        } catch (Exception e){
-            addLog("checkIfCanUpdateFile " + e);
+    static String getSettingText(String key, String defaultValue){
+        String value = settings.getProperty(key);
+        if(value == null || value.isBlank()){
+            return defaultValue;
         }
-        return true; //mudar para false
+        return value.trim();
     }
 
     private static void createLogArquive(){
@@ -413,17 +957,14 @@ public class Main {
         }
     }
 
-    private static void createArquivePathControl(){
+    // O texto original é mantido como PathControl.txt.migrated
+    private static void migratePathControl(Path textPath){
         try{
-            File pathControlFile = new File("PathControl.txt");
-
-            if(pathControlFile.createNewFile()){
-                addLog("Info: pathControlFile created");
-            } else {
-                addLog("Info: pathControlFile exists");
-            }
+            int entries = PathControlCatalog.migrate(textPath, Path.of("PathControl.bin"));
+            Files.move(textPath, textPath.resolveSibling(textPath.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+            addLog("Info: PathControl migrated to PathControl.bin, lines " + entries);
         } catch (Exception e){
-            addLog("Error: createPathControlArquive " + e);
+            addLog("Error: migratePathControl " + e);
         }
     }
 
@@ -455,6 +996,53 @@ public class Main {
         }
     }
 
+    // Criado com as regras padrão: arquivos temporários do Office (~*), .tmp, .lock e Thumbs.db
+    private static void createArquiveFilters(){
+        try{
+            Files.write(Path.of("BackupFilters.txt"), PathFilter.DEFAULT_RULES, StandardOpenOption.CREATE_NEW);
+            addLog("Info: file backup filters created.");
+        } catch (FileAlreadyExistsException e){
+            addLog("Info: file backup filters exists.");
+        } catch (Exception e){
+            addLog("Error: createArquiveFilters, " + e);
+        }
+    }
+
+    private static PathFilter readArquiveFilters(){
+        try{
+            PathFilter filter = PathFilter.load(Path.of("BackupFilters.txt"), sourcePaths);
+            addLog("Read: readArquiveFilters, " + Files.readAllLines(Path.of("BackupFilters.txt")));
+            return filter;
+        } catch (Exception e){
+            addLog("Error: readArquiveFilters, " + e);
+            return PathFilter.parse(PathFilter.DEFAULT_RULES, sourcePaths);
+        }
+    }
+
+    private static void createArquiveSettings(){
+        try{
+            File settingsFile = new File("BackupSettings.txt");
+
+            if(settingsFile.createNewFile()){
+                addLog("Info: file backup settings created.");
+            } else {
+                addLog("Info: file backup settings exists.");
+            }
+        } catch (Exception e){
+            addLog("Error: createArquiveSettings, " + e);
+        }
+    }
+
+    private static void readArquiveSettings(){
+        // Formato chave=valor, uma por linha. Chaves ausentes usam o valor padrão.
+        try (BufferedReader reader = new BufferedReader(new FileReader("BackupSettings.txt"))){
+            settings.load(reader);
+            addLog("Read: readArquiveSettings, settings " + settings);
+        } catch (Exception e){
+            addLog("Error: readArquiveSettings, " + e);
+        }
+    }
+
     private static List<String> readArquiveSourcesPaths(){
 
         File backupFile = new File("BackupSources.txt");
@@ -462,8 +1050,24 @@ public class Main {
 
         try {
             // Lê todas as linhas do arquivo e armazena na lista 'lines'
-            lines = Files.readAllLines(Path.of(backupFile.getPath()));
-            addLog("Read: readArquiveSourcesPaths, sources " + lines);
+            lines = new ArrayList<>();
+            for(String line : Files.readAllLines(Path.of(backupFile.getPath()))){
+                if(line.isBlank()){
+                    continue;
+                }
+                // Peso opcional da origem para a fila de cópia: "caminho|peso" (padrão 1, maior sai antes)
+                String[] params = line.split("\\|");
+                String path = params[0].trim();
+                lines.add(path);
+                if(params.length > 1){
+                    try{
+                        sourceWeights.put(path, Double.parseDouble(params[1].trim()));
+                    } catch (NumberFormatException e){
+                        addLog("Error: invalid source weight " + line);
+                    }
+                }
+            }
+            addLog("Read: readArquiveSourcesPaths, sources " + lines + " weights " + sourceWeights);
         } catch (IOException e) {
             addLog("Error: readArquiveSourcesPaths, " + e);
         }
@@ -515,6 +1119,28 @@ public class Main {
         return false;
     }
 
+    private static boolean verifyArquiveSettingsExists(){
+        File settingsFile = new File("BackupSettings.txt");
+
+        if(settingsFile.exists()){
+            addLog("Verify: BackupSettings exists");
+            return true;
+        }
+        addLog("Verify: BackupSettings do not exists");
+        return false;
+    }
+
+    private static boolean verifyArquiveFiltersExists(){
+        File filtersFile = new File("BackupFilters.txt");
+
+        if(filtersFile.exists()){
+            addLog("Verify: BackupFilters exists");
+            return true;
+        }
+        addLog("Verify: BackupFilters do not exists");
+        return false;
+    }
+
     private static boolean verifyArquiveSourcesPathsExists(){
         File sourcesFile = new File("BackupSources.txt");
 
@@ -526,38 +1152,53 @@ public class Main {
         return false;
     }
 
+    // O firstBackup.txt só é criado quando o backup inicial termina sem erros;
+    // enquanto ele não existir o backup inicial continua a partir do checkpoint.
     private static boolean verifyFirstBackup() {
-        try {
-            File firstBackupFile = new File("firstBackup.txt");
+        File firstBackupFile = new File("firstBackup.txt");
 
-            // Verifica se o arquivo já existe
-            if (firstBackupFile.exists()) {
-                return false; // Indica que o arquivo já existia
-            } else {
-                // Cria o arquivo se ele não existir
-                if (firstBackupFile.createNewFile()) {
-                    return true; // Indica que o arquivo foi criado com sucesso
-                }
-            }
-        } catch (Exception e) {
-            addLog("Error: Verify/create first backup, " + e);
+        // Verifica se o arquivo já existe
+        if (firstBackupFile.exists()) {
+            return false; // Backup inicial já concluído
         }
-        return false;
+        return true;
     }
 
     private static void performFirstBackup() throws Exception{
 
-        File firstBackupFile = new File("firstBackup.txt");
-        if(!firstBackupFile.exists()){
-            firstBackupFile.createNewFile();
-        }
+        FirstBackupCheckpoint checkpoint = FirstBackupCheckpoint.load(Path.of("FirstBackupCheckpoint.txt"));
+        addLog("Info: first backup checkpoint, files " + checkpoint.doneFilesCount()
+                + " directories " + checkpoint.doneDirectoriesCount());
 
+        List<Path> roots = new ArrayList<>();
+        List<Path> destinationRoots = new ArrayList<>();
         for (int i = 0; i < sourcePaths.size(); i++) {
             Path sourcePath = Path.of(sourcePaths.get(i));
-            Path destinationPath = Path.of(baseDestinationPath + "\\" + sourcePath.getFileName().toString());
+            roots.add(sourcePath);
+            destinationRoots.add(destinationRootFor(sourcePath));
+        }
 
+        // Varredura e cópia em paralelo de todas as origens ao mesmo tempo
+        FirstBackupSeeder seeder = new FirstBackupSeeder(
+                Main::backupTreeFile,
+                checkpoint,
+                pathFilter,
+                (int) getSetting("seed.walkThreads", 4),
+                (int) getSetting("seed.workers", 8),
+                getSetting("seed.largeFileSize", 32L * 1024 * 1024),
+                getSetting("seed.progressSeconds", 30));
+        boolean completed = seeder.run(roots, destinationRoots);
+
+        if(completed){
+            new File("firstBackup.txt").createNewFile();
+            checkpoint.delete();
+        } else{
+            checkpoint.close();
+            addLog("Error: first backup finished with failures, it will resume on next start");
+        }
+
+        for (Path sourcePath : roots) {
             try {
-                copyRecursive(sourcePath, destinationPath);
                 // Adicionar as pastas e arquivos ao watcher para monitoramento após o backup inicial
                 recursiveAddArquiveToWatcher(sourcePath);
             } catch (Exception e) {
@@ -567,42 +1208,9 @@ public class Main {
 
     }
 
-    private static void modifyTimestampFromSourcePathControlArquive(Path searchPath, Instant timestamp){
-        String arquiveName = "PathControl.txt";
-
-        File file = new File(arquiveName);
-
-        String[] oldLineParams = null;
-
-        List<String> lines = new ArrayList<>();
-
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(arquiveName));
-            String line;
-            while((line = reader.readLine()) !=null){
-                String[] params = line.split("\\|");
-                if(params.length > 0  && params[0].equals(searchPath.toString())){
-
-                    line = searchPath + "|" + params[1] + "|" + timestamp;
-                }
-
-                lines.add(line);
-            }
-
-            reader.close();
-
-        } catch (Exception e){
-            addLog("Error: Read - ModifyTimestampFromSourcePathControlArquive, " + e);
-        }
-
+    private static void modifyTimestampFromSourcePathControlArquive(Path searchPath, Instant timestamp, long checksum){
         try {
-            PrintWriter writer = new PrintWriter(new FileWriter(arquiveName));
-
-            for(String line : lines){
-                writer.println(line);
-            }
-
-            writer.close();
+            pathControlCatalog.updateTimestamp(searchPath, timestamp, checksum);
         } catch (Exception e) {
             addLog("Error: Write - ModifyTimestampFromSourcePathControlArquive, " + e);
         }
@@ -610,7 +1218,7 @@ public class Main {
 
     private static void printKeyDirectoryMap(){
         System.out.println("KEY DIRECTORY MAP:");
-        Collection<Path> keyValues = keyDirectoryMap.values();
+        Collection<Path> keyValues = watcherManager.directories();
         Iterator<Path> iterator = keyValues.iterator();
 
         while(iterator.hasNext()){
@@ -620,14 +1228,4 @@ public class Main {
         System.out.println("--------------");
     }
 
-    private static void printListFileThatCannotBeModified(){
-        System.out.println("FILES THAT CANNOT BE MODIFIED");
-
-        for(int i = 0; i < fileThatCannotBeModified.size(); i++){
-            System.out.println(fileThatCannotBeModified.get(i));
-        }
-
-        System.out.println("--------------");
-    }
-
 }
\ No newline at end of file
@@ -0,0 +1,641 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+// Catálogo do PathControl em formato binário (PathControl.bin), acessado por MappedByteBuffer.
+// Nada é carregado na abertura: as consultas leem direto do arquivo mapeado.
+//
+// Layout (versão 1), todos os números big-endian:
+//   cabeçalho (64 bytes): magic, versão, contadores e capacidades de cada região
+//   índice de segmentos: hash aberto de int (posição no pool + 1, 0 = vazio)
+//   índice de nós:       hash aberto de int (nó + 1), chave (pai, segmento)
+//   nós (12 bytes):      pai (-1 = primeiro segmento), posição do segmento no pool, registro + 1
+//   registros (32 bytes): nó origem, nó destino, segundos, nanos, flags, checksum (CRC32C da cópia)
+//   pool de segmentos:   [int tamanho][chars], cada nome de pasta/arquivo aparece uma vez
+//
+// Um caminho é a cadeia de nós raiz -> ... -> nome, então origem e destino com o mesmo prefixo
+// compartilham nós. Os registros têm tamanho fixo e são alterados no lugar (tombstone é uma flag),
+// então o arquivo não cresce com atualizações. Quando alguma região enche o catálogo é
+// reescrito com o dobro da capacidade numa nova geração (PathControl.bin.g1, .g2, ...) e o
+// arquivo PathControl.bin.current passa a apontar para ela. Nada é renomeado por cima de um
+// arquivo mapeado: no Windows isso falha enquanto o mapeamento existir, e fechar o canal não
+// desfaz o mapeamento (só o GC). Gerações antigas são apagadas quando o sistema deixar.
+public class PathControlCatalog {
+
+    private static final long MAGIC = 0x4745444143415431L; // "GEDACAT1"
+    private static final int VERSION = 1;
+    private static final String DELETED_MARKER = "DELETED";
+
+    private static final int HEADER_SIZE = 64;
+    private static final int NODE_SIZE = 12;
+    private static final int RECORD_SIZE = 32;
+    private static final int FLAG_DELETED = 1;
+    private static final int FLAG_CHECKSUM = 2; // registros antigos não têm checksum
+
+    // Posições no cabeçalho
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 8;
+    private static final int H_RECORD_COUNT = 12;
+    private static final int H_RECORD_CAPACITY = 16;
+    private static final int H_NODE_COUNT = 20;
+    private static final int H_NODE_CAPACITY = 24;
+    private static final int H_POOL_USED = 28;
+    private static final int H_POOL_CAPACITY = 32;
+    private static final int H_INDEX_CAPACITY = 36;
+
+    private static final int INITIAL_RECORDS = 1024;
+
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+    private static final String CURRENT_SUFFIX = ".current";
+    private static final String GENERATION_SUFFIX = ".g";
+
+    private final Path arquivePath;
+    private Path dataPath; // geração em uso
+    private boolean published = true; // false durante a migração: a geração só vale no final
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // Copiados do cabeçalho para não ler o buffer a cada acesso
+    private int recordCount;
+    private int recordCapacity;
+    private int nodeCount;
+    private int nodeCapacity;
+    private int poolUsed;
+    private int poolCapacity;
+    private int indexCapacity;
+    private int segmentIndexOffset;
+    private int nodeIndexOffset;
+    private int nodesOffset;
+    private int recordsOffset;
+    private int poolOffset;
+
+    // checksum -1 quando a cópia foi feita sem conferência
+    public record Entry(String source, String destination, Instant timestamp, boolean deleted, long checksum) {
+    }
+
+    private PathControlCatalog(Path arquivePath, Path dataPath) {
+        this.arquivePath = arquivePath;
+        this.dataPath = dataPath;
+    }
+
+    public static PathControlCatalog load(Path arquivePath) throws IOException {
+        PathControlCatalog catalog = new PathControlCatalog(arquivePath, currentDataPath(arquivePath));
+        if (Files.notExists(catalog.dataPath) || Files.size(catalog.dataPath) == 0) {
+            Files.deleteIfExists(catalog.dataPath);
+            createEmpty(catalog.dataPath, INITIAL_RECORDS, INITIAL_RECORDS * 4, INITIAL_RECORDS * 64);
+        }
+        catalog.open();
+        catalog.deleteOldGenerations();
+        return catalog;
+    }
+
+    // Existe um catálogo gravado (o arquivo base ou uma geração apontada pelo .current)
+    public static boolean exists(Path arquivePath) throws IOException {
+        return Files.exists(currentDataPath(arquivePath));
+    }
+
+    // Converte o PathControl.txt antigo (source|destination|timestamp[|DELETED], última linha vale).
+    // O resultado vai para uma geração nova que só passa a valer quando tudo foi gravado.
+    public static int migrate(Path textPath, Path arquivePath) throws IOException {
+        PathControlCatalog catalog = new PathControlCatalog(arquivePath, nextGenerationPath(arquivePath, currentDataPath(arquivePath)));
+        catalog.published = false;
+        Files.deleteIfExists(catalog.dataPath);
+        createEmpty(catalog.dataPath, INITIAL_RECORDS, INITIAL_RECORDS * 4, INITIAL_RECORDS * 64);
+        catalog.open();
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(textPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] params = line.split("\\|");
+                if (params.length < 3) {
+                    continue;
+                }
+                try {
+                    boolean deleted = params.length > 3 && params[3].equals(DELETED_MARKER);
+                    catalog.write(Path.of(params[0]), Path.of(params[1]), Instant.parse(params[2]), deleted, -1);
+                    lines++;
+                } catch (Exception e) {
+                    Main.addLog("Error: PathControlCatalog invalid line " + line);
+                }
+            }
+        } finally {
+            catalog.close();
+        }
+
+        publish(arquivePath, catalog.dataPath);
+        return lines;
+    }
+
+    private static Path currentDataPath(Path arquivePath) throws IOException {
+        Path pointer = arquivePath.resolveSibling(arquivePath.getFileName() + CURRENT_SUFFIX);
+        if (Files.notExists(pointer)) {
+            return arquivePath;
+        }
+        return arquivePath.resolveSibling(Files.readString(pointer, StandardCharsets.UTF_8).trim());
+    }
+
+    private static Path nextGenerationPath(Path arquivePath, Path dataPath) {
+        String base = arquivePath.getFileName().toString();
+        String name = dataPath.getFileName().toString();
+        int generation = name.startsWith(base + GENERATION_SUFFIX)
+                ? Integer.parseInt(name.substring(base.length() + GENERATION_SUFFIX.length())) + 1
+                : 1;
+        return arquivePath.resolveSibling(base + GENERATION_SUFFIX + generation);
+    }
+
+    // O ponteiro é um arquivo pequeno nunca mapeado: pode ser trocado por rename atômico
+    private static void publish(Path arquivePath, Path dataPath) throws IOException {
+        Path pointer = arquivePath.resolveSibling(arquivePath.getFileName() + CURRENT_SUFFIX);
+        Path temporary = pointer.resolveSibling(pointer.getFileName() + ".tmp");
+        Files.writeString(temporary, dataPath.getFileName().toString(), StandardCharsets.UTF_8);
+        try (FileChannel sync = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            sync.force(true);
+        }
+        Files.move(temporary, pointer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // O arquivo base e as gerações que não estão em uso. Se alguma ainda estiver mapeada
+    // (Windows) fica para a próxima abertura.
+    private void deleteOldGenerations() {
+        String base = arquivePath.getFileName().toString();
+        Path directory = arquivePath.toAbsolutePath().getParent();
+        try (var files = Files.list(directory)) {
+            for (Path file : files.toList()) {
+                String name = file.getFileName().toString();
+                boolean generation = name.equals(base) || name.matches(Pattern.quote(base + GENERATION_SUFFIX) + "\\d+");
+                if (generation && !file.getFileName().equals(dataPath.getFileName())) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        Main.addLog("Info: PathControl old generation kept for now " + file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Main.addLog("Error: PathControl list generations " + e);
+        }
+    }
+
+    // Exporta no formato do PathControl.txt, para consulta dos operadores
+    public synchronized int exportText(Path textPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(textPath, StandardCharsets.UTF_8)) {
+            for (int record = 0; record < recordCount; record++) {
+                Entry entry = readRecord(record, null);
+                String line = entry.source() + "|" + entry.destination() + "|" + entry.timestamp();
+                writer.write(entry.deleted() ? line + "|" + DELETED_MARKER : line);
+                writer.newLine();
+            }
+        }
+        return recordCount;
+    }
+
+    public synchronized Entry get(Path sourcePath) {
+        int node = findNode(sourcePath);
+        if (node < 0) {
+            return null;
+        }
+        int record = buffer.getInt(nodesOffset + node * NODE_SIZE + 8) - 1;
+        return record < 0 ? null : readRecord(record, sourcePath.toString());
+    }
+
+    public synchronized int size() {
+        return recordCount;
+    }
+
+    public synchronized void put(Path sourcePath, Path destinationPath, Instant timestamp) throws IOException {
+        write(sourcePath, destinationPath, timestamp, false, -1);
+    }
+
+    public synchronized void put(Path sourcePath, Path destinationPath, Instant timestamp, long checksum) throws IOException {
+        write(sourcePath, destinationPath, timestamp, false, checksum);
+    }
+
+    // Retorna false se o source ainda não está no catálogo
+    public synchronized boolean updateTimestamp(Path sourcePath, Instant timestamp) {
+        int record = recordOf(sourcePath);
+        if (record < 0) {
+            return false;
+        }
+        int position = recordsOffset + record * RECORD_SIZE;
+        buffer.putLong(position + 8, timestamp.getEpochSecond());
+        buffer.putInt(position + 16, timestamp.getNano());
+        return true;
+    }
+
+    // Data e checksum da nova cópia; checksum -1 mantém o que já estava gravado
+    public synchronized boolean updateTimestamp(Path sourcePath, Instant timestamp, long checksum) {
+        if (!updateTimestamp(sourcePath, timestamp)) {
+            return false;
+        }
+        if (checksum >= 0) {
+            int position = recordsOffset + recordOf(sourcePath) * RECORD_SIZE;
+            buffer.putInt(position + 20, buffer.getInt(position + 20) | FLAG_CHECKSUM);
+            buffer.putLong(position + 24, checksum);
+        }
+        return true;
+    }
+
+    // Grava o tombstone e devolve a entrada que estava ativa, ou null se não havia
+    public synchronized Entry markDeleted(Path sourcePath, Instant timestamp) {
+        int record = recordOf(sourcePath);
+        if (record < 0) {
+            return null;
+        }
+        Entry entry = readRecord(record, sourcePath.toString());
+        if (entry.deleted()) {
+            return null;
+        }
+        int position = recordsOffset + record * RECORD_SIZE;
+        buffer.putLong(position + 8, timestamp.getEpochSecond());
+        buffer.putInt(position + 16, timestamp.getNano());
+        buffer.putInt(position + 20, buffer.getInt(position + 20) | FLAG_DELETED);
+        return entry;
+    }
+
+    // Entradas ativas dentro de uma pasta. Percorre todos os registros, usar só em
+    // casos raros como a remoção de uma pasta inteira.
+    public synchronized List<Entry> entriesUnder(Path directory) {
+        return entriesUnder(directory, false);
+    }
+
+    // includeDeleted traz também os tombstones (restauração de um ponto no passado)
+    public synchronized List<Entry> entriesUnder(Path directory, boolean includeDeleted) {
+        List<Entry> found = new ArrayList<>();
+        int directoryNode = findNode(directory);
+        if (directoryNode < 0) {
+            return found;
+        }
+
+        for (int record = 0; record < recordCount; record++) {
+            int position = recordsOffset + record * RECORD_SIZE;
+            if (!includeDeleted && (buffer.getInt(position + 20) & FLAG_DELETED) != 0) {
+                continue;
+            }
+            for (int node = buffer.getInt(position); node >= 0; node = buffer.getInt(nodesOffset + node * NODE_SIZE)) {
+                if (node == directoryNode) {
+                    found.add(readRecord(record, null));
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            buffer.force();
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void write(Path sourcePath, Path destinationPath, Instant timestamp, boolean deleted, long checksum) throws IOException {
+        // Garante espaço antes de começar, para o crescimento não acontecer no meio de um registro
+        ensureCapacity(sourcePath, destinationPath);
+
+        int sourceNode = internPath(sourcePath);
+        int destinationNode = internPath(destinationPath);
+        int nodePosition = nodesOffset + sourceNode * NODE_SIZE;
+        int record = buffer.getInt(nodePosition + 8) - 1;
+        boolean isNew = record < 0;
+        if (isNew) {
+            record = recordCount;
+        }
+
+        int position = recordsOffset + record * RECORD_SIZE;
+        buffer.putInt(position, sourceNode);
+        buffer.putInt(position + 4, destinationNode);
+        buffer.putLong(position + 8, timestamp.getEpochSecond());
+        buffer.putInt(position + 16, timestamp.getNano());
+        buffer.putInt(position + 20, (deleted ? FLAG_DELETED : 0) | (checksum >= 0 ? FLAG_CHECKSUM : 0));
+        buffer.putLong(position + 24, checksum >= 0 ? checksum : 0);
+
+        // O registro só fica visível depois de completo
+        if (isNew) {
+            buffer.putInt(nodePosition + 8, record + 1);
+            recordCount++;
+            buffer.putInt(H_RECORD_COUNT, recordCount);
+        }
+    }
+
+    private int recordOf(Path sourcePath) {
+        int node = findNode(sourcePath);
+        return node < 0 ? -1 : buffer.getInt(nodesOffset + node * NODE_SIZE + 8) - 1;
+    }
+
+    private Entry readRecord(int record, String source) {
+        int position = recordsOffset + record * RECORD_SIZE;
+        if (source == null) {
+            source = pathOf(buffer.getInt(position));
+        }
+        return new Entry(
+                source,
+                pathOf(buffer.getInt(position + 4)),
+                Instant.ofEpochSecond(buffer.getLong(position + 8), buffer.getInt(position + 16)),
+                (buffer.getInt(position + 20) & FLAG_DELETED) != 0,
+                (buffer.getInt(position + 20) & FLAG_CHECKSUM) != 0 ? buffer.getLong(position + 24) : -1);
+    }
+
+    // Caminho -> segmentos: a raiz (ex: "C:\", "\\servidor\pasta\", "/" ou "") e depois cada nome
+    private static int segmentCount(Path path) {
+        return path.getNameCount() + 1;
+    }
+
+    private static String segment(Path path, int index) {
+        if (index == 0) {
+            Path root = path.getRoot();
+            return root == null ? "" : root.toString();
+        }
+        return path.getName(index - 1).toString();
+    }
+
+    private String pathOf(int node) {
+        List<String> names = new ArrayList<>();
+        for (int current = node; current >= 0; current = buffer.getInt(nodesOffset + current * NODE_SIZE)) {
+            names.add(readSegment(buffer.getInt(nodesOffset + current * NODE_SIZE + 4)));
+        }
+
+        StringBuilder path = new StringBuilder(names.get(names.size() - 1));
+        for (int i = names.size() - 2; i >= 0; i--) {
+            if (i < names.size() - 2) {
+                path.append(SEPARATOR);
+            }
+            path.append(names.get(i));
+        }
+        return path.toString();
+    }
+
+    private int findNode(Path path) {
+        int node = -1;
+        for (int i = 0; i < segmentCount(path); i++) {
+            int segment = findSegment(segment(path, i));
+            if (segment < 0) {
+                return -1;
+            }
+            node = findChild(node, segment);
+            if (node < 0) {
+                return -1;
+            }
+        }
+        return node;
+    }
+
+    private int internPath(Path path) {
+        int node = -1;
+        for (int i = 0; i < segmentCount(path); i++) {
+            String name = segment(path, i);
+            int segment = findSegment(name);
+            if (segment < 0) {
+                segment = addSegment(name);
+            }
+            int child = findChild(node, segment);
+            node = child >= 0 ? child : addNode(node, segment);
+        }
+        return node;
+    }
+
+    // Índice de segmentos: o hash é o String.hashCode, que a String já guarda em cache
+    private int findSegment(String name) {
+        int mask = indexCapacity - 1;
+        for (int slot = name.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            int value = buffer.getInt(segmentIndexOffset + slot * 4);
+            if (value == 0) {
+                return -1;
+            }
+            if (segmentEquals(value - 1, name)) {
+                return value - 1;
+            }
+        }
+    }
+
+    private boolean segmentEquals(int segment, String name) {
+        int position = poolOffset + segment;
+        int length = buffer.getInt(position);
+        if (length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.getChar(position + 4 + i * 2) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readSegment(int segment) {
+        int position = poolOffset + segment;
+        char[] chars = new char[buffer.getInt(position)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = buffer.getChar(position + 4 + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private static int segmentHash(MappedByteBuffer buffer, int position) {
+        int length = buffer.getInt(position);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + buffer.getChar(position + 4 + i * 2);
+        }
+        return hash;
+    }
+
+    private int addSegment(String name) {
+        int segment = poolUsed;
+        int position = poolOffset + segment;
+        buffer.putInt(position, name.length());
+        for (int i = 0; i < name.length(); i++) {
+            buffer.putChar(position + 4 + i * 2, name.charAt(i));
+        }
+        poolUsed += 4 + name.length() * 2;
+        buffer.putInt(H_POOL_USED, poolUsed);
+        insertSegmentIndex(buffer, segmentIndexOffset, indexCapacity, name.hashCode(), segment);
+        return segment;
+    }
+
+    private static void insertSegmentIndex(MappedByteBuffer buffer, int offset, int capacity, int hash, int segment) {
+        int mask = capacity - 1;
+        int slot = hash & mask;
+        while (buffer.getInt(offset + slot * 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer.putInt(offset + slot * 4, segment + 1);
+    }
+
+    private static int nodeHash(int parent, int segment) {
+        long key = ((long) parent << 32) | (segment & 0xFFFFFFFFL);
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private int findChild(int parent, int segment) {
+        int mask = indexCapacity - 1;
+        for (int slot = nodeHash(parent, segment) & mask; ; slot = (slot + 1) & mask) {
+            int value = buffer.getInt(nodeIndexOffset + slot * 4);
+            if (value == 0) {
+                return -1;
+            }
+            int position = nodesOffset + (value - 1) * NODE_SIZE;
+            if (buffer.getInt(position) == parent && buffer.getInt(position + 4) == segment) {
+                return value - 1;
+            }
+        }
+    }
+
+    private int addNode(int parent, int segment) {
+        int node = nodeCount;
+        int position = nodesOffset + node * NODE_SIZE;
+        buffer.putInt(position, parent);
+        buffer.putInt(position + 4, segment);
+        buffer.putInt(position + 8, 0);
+        nodeCount++;
+        buffer.putInt(H_NODE_COUNT, nodeCount);
+        insertNodeIndex(buffer, nodeIndexOffset, indexCapacity, parent, segment, node);
+        return node;
+    }
+
+    private static void insertNodeIndex(MappedByteBuffer buffer, int offset, int capacity, int parent, int segment, int node) {
+        int mask = capacity - 1;
+        int slot = nodeHash(parent, segment) & mask;
+        while (buffer.getInt(offset + slot * 4) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer.putInt(offset + slot * 4, node + 1);
+    }
+
+    // Pior caso: todos os segmentos dos dois caminhos são novos
+    private void ensureCapacity(Path sourcePath, Path destinationPath) throws IOException {
+        int segments = segmentCount(sourcePath) + segmentCount(destinationPath);
+        int poolBytes = 0;
+        for (int i = 0; i < segmentCount(sourcePath); i++) {
+            poolBytes += 4 + segment(sourcePath, i).length() * 2;
+        }
+        for (int i = 0; i < segmentCount(destinationPath); i++) {
+            poolBytes += 4 + segment(destinationPath, i).length() * 2;
+        }
+
+        int newRecords = recordCount + 1 > recordCapacity ? recordCapacity * 2 : recordCapacity;
+        int newNodes = nodeCapacity;
+        while (nodeCount + segments > newNodes) {
+            newNodes *= 2;
+        }
+        int newPool = poolCapacity;
+        while (poolUsed + poolBytes > newPool) {
+            newPool *= 2;
+        }
+
+        if (newRecords != recordCapacity || newNodes != nodeCapacity || newPool != poolCapacity) {
+            grow(newRecords, newNodes, newPool);
+        }
+    }
+
+    // Reescreve o catálogo numa nova geração com regiões maiores. Nós, registros e pool são
+    // copiados como estão (as posições continuam valendo) e os dois índices são refeitos.
+    private void grow(int newRecords, int newNodes, int newPool) throws IOException {
+        Path grownPath = nextGenerationPath(arquivePath, dataPath);
+        Files.deleteIfExists(grownPath);
+        createEmpty(grownPath, newRecords, newNodes, newPool);
+
+        try (FileChannel target = FileChannel.open(grownPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer grown = target.map(FileChannel.MapMode.READ_WRITE, 0, target.size());
+            int grownIndexCapacity = grown.getInt(H_INDEX_CAPACITY);
+            int grownSegmentIndex = HEADER_SIZE;
+            int grownNodeIndex = grownSegmentIndex + grownIndexCapacity * 4;
+            int grownNodes = grownNodeIndex + grownIndexCapacity * 4;
+            int grownRecords = grownNodes + newNodes * NODE_SIZE;
+            int grownPool = grownRecords + newRecords * RECORD_SIZE;
+
+            grown.put(grownNodes, buffer, nodesOffset, nodeCount * NODE_SIZE);
+            grown.put(grownRecords, buffer, recordsOffset, recordCount * RECORD_SIZE);
+            grown.put(grownPool, buffer, poolOffset, poolUsed);
+
+            for (int segment = 0; segment < poolUsed; segment += 4 + grown.getInt(grownPool + segment) * 2) {
+                insertSegmentIndex(grown, grownSegmentIndex, grownIndexCapacity, segmentHash(grown, grownPool + segment), segment);
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                int position = grownNodes + node * NODE_SIZE;
+                insertNodeIndex(grown, grownNodeIndex, grownIndexCapacity, grown.getInt(position), grown.getInt(position + 4), node);
+            }
+
+            grown.putInt(H_RECORD_COUNT, recordCount);
+            grown.putInt(H_NODE_COUNT, nodeCount);
+            grown.putInt(H_POOL_USED, poolUsed);
+            grown.force();
+        }
+
+        close();
+        dataPath = grownPath;
+        if (published) {
+            publish(arquivePath, grownPath);
+        }
+        open();
+        if (published) {
+            deleteOldGenerations();
+        }
+        Main.addLog("Info: PathControl grown, records " + recordCapacity + " nodes " + nodeCapacity + " pool " + poolCapacity);
+    }
+
+    private static void createEmpty(Path path, int records, int nodes, int pool) throws IOException {
+        // Índices com no máximo metade ocupada
+        int indexCapacity = Integer.highestOneBit(nodes) * 4;
+        long size = HEADER_SIZE + indexCapacity * 8L + (long) nodes * NODE_SIZE + (long) records * RECORD_SIZE + pool;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("PathControl catalog larger than 2GB");
+        }
+
+        try (FileChannel target = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer header = target.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            header.putLong(H_MAGIC, MAGIC);
+            header.putInt(H_VERSION, VERSION);
+            header.putInt(H_RECORD_COUNT, 0);
+            header.putInt(H_RECORD_CAPACITY, records);
+            header.putInt(H_NODE_COUNT, 0);
+            header.putInt(H_NODE_CAPACITY, nodes);
+            header.putInt(H_POOL_USED, 0);
+            header.putInt(H_POOL_CAPACITY, pool);
+            header.putInt(H_INDEX_CAPACITY, indexCapacity);
+            header.force();
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+
+        if (buffer.getLong(H_MAGIC) != MAGIC) {
+            close();
+            throw new IOException("Not a PathControl catalog: " + dataPath);
+        }
+        if (buffer.getInt(H_VERSION) != VERSION) {
+            close();
+            throw new IOException("Unsupported PathControl catalog version " + buffer.getInt(H_VERSION));
+        }
+
+        recordCount = buffer.getInt(H_RECORD_COUNT);
+        recordCapacity = buffer.getInt(H_RECORD_CAPACITY);
+        nodeCount = buffer.getInt(H_NODE_COUNT);
+        nodeCapacity = buffer.getInt(H_NODE_CAPACITY);
+        poolUsed = buffer.getInt(H_POOL_USED);
+        poolCapacity = buffer.getInt(H_POOL_CAPACITY);
+        indexCapacity = buffer.getInt(H_INDEX_CAPACITY);
+
+        segmentIndexOffset = HEADER_SIZE;
+        nodeIndexOffset = segmentIndexOffset + indexCapacity * 4;
+        nodesOffset = nodeIndexOffset + indexCapacity * 4;
+        recordsOffset = nodesOffset + nodeCapacity * NODE_SIZE;
+        poolOffset = recordsOffset + recordCapacity * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+// Regras de inclusão/exclusão lidas do BackupFilters.txt, uma por linha:
+//   exclude <glob>          include <glob>          (include vale mais que exclude)
+//   excludeRegex <regex>    includeRegex <regex>
+//   maxSize <bytes, aceita K/M/G>    maxAgeDays <dias>
+//   [<origem>]              as linhas seguintes valem só para essa origem (somadas às globais)
+// Glob sem "/" compara com o nome em qualquer nível (ex: Thumbs.db, *.tmp, node_modules);
+// com "/" compara com o caminho relativo à origem (ex: projetos/**/bin). Tudo sem diferenciar
+// maiúsculas, como nos shares Windows.
+// As regras de cada origem são compiladas uma vez: nomes exatos e extensões vão para HashSets,
+// prefixos para uma lista curta e o resto vira uma única regex com todas as alternativas, então
+// cada caminho é testado em uma passada só, não regra por regra.
+// Um arquivo está excluído se ele ou alguma pasta acima dele bate num exclude; o include vale
+// só para arquivos e ganha dos dois. Sem regras de include uma pasta excluída não é percorrida
+// nem registrada no watcher. Com include, toda pasta é percorrida (um include como *.docx pode
+// bater em qualquer nível), e só os arquivos de dentro são filtrados.
+public class PathFilter {
+
+    public static final List<String> DEFAULT_RULES = List.of(
+            "exclude ~*",
+            "exclude *.tmp",
+            "exclude *.lock",
+            "exclude Thumbs.db");
+
+    // Conjunto de padrões compilado (só exclusões ou só inclusões)
+    private static class PatternSet {
+        private final Set<String> names = new HashSet<>();
+        private final Set<String> extensions = new HashSet<>();
+        private final List<String> namePrefixes = new ArrayList<>();
+        private final List<String> expressions = new ArrayList<>();
+        private Pattern combined;
+
+        void addGlob(String glob) {
+            String lower = glob.toLowerCase(Locale.ROOT);
+            if (lower.startsWith("/")) {
+                lower = lower.substring(1);
+            }
+            if (lower.endsWith("/")) {
+                lower = lower.substring(0, lower.length() - 1);
+            }
+
+            if (!lower.contains("/")) {
+                String rest = lower.length() > 1 ? lower.substring(1) : "";
+                if (!hasWildcard(lower)) {
+                    names.add(lower);
+                    return;
+                }
+                if (lower.startsWith("*.") && !hasWildcard(rest) && !rest.substring(1).contains(".")) {
+                    extensions.add(rest.substring(1));
+                    return;
+                }
+                String prefix = lower.substring(0, lower.length() - 1);
+                if (lower.endsWith("*") && !hasWildcard(prefix)) {
+                    namePrefixes.add(prefix);
+                    return;
+                }
+                expressions.add("(?:.*/)?" + globToRegex(lower));
+                return;
+            }
+            expressions.add(globToRegex(lower));
+        }
+
+        void addRegex(String regex) {
+            Pattern.compile(regex); // erro de sintaxe aparece na leitura da regra, não no primeiro arquivo
+            expressions.add(regex);
+        }
+
+        void addAll(PatternSet other) {
+            names.addAll(other.names);
+            extensions.addAll(other.extensions);
+            namePrefixes.addAll(other.namePrefixes);
+            expressions.addAll(other.expressions);
+        }
+
+        void compile() {
+            if (!expressions.isEmpty()) {
+                combined = Pattern.compile("(?:" + String.join(")|(?:", expressions) + ")", Pattern.CASE_INSENSITIVE);
+            }
+        }
+
+        boolean isEmpty() {
+            return names.isEmpty() && extensions.isEmpty() && namePrefixes.isEmpty() && combined == null;
+        }
+
+        // relative: caminho relativo à origem com "/", name: último nome, ambos em minúsculas
+        boolean matches(String relative, String name) {
+            if (names.contains(name)) {
+                return true;
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0 && extensions.contains(name.substring(dot + 1))) {
+                return true;
+            }
+            for (String prefix : namePrefixes) {
+                if (name.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return combined != null && combined.matcher(relative).matches();
+        }
+    }
+
+    // Regras efetivas de uma origem (globais + seção da origem)
+    private static class Rules {
+        private final PatternSet excluded = new PatternSet();
+        private final PatternSet included = new PatternSet();
+        private long maxSize = -1;
+        private long maxAgeDays = -1;
+
+        void addAll(Rules other) {
+            excluded.addAll(other.excluded);
+            included.addAll(other.included);
+            if (other.maxSize >= 0) {
+                maxSize = other.maxSize;
+            }
+            if (other.maxAgeDays >= 0) {
+                maxAgeDays = other.maxAgeDays;
+            }
+        }
+
+        void compile() {
+            excluded.compile();
+            included.compile();
+        }
+
+        boolean acceptsPath(String relative, String name) {
+            if (excluded.isEmpty()) {
+                return true;
+            }
+            // Sem include as pastas excluídas já foram podadas, não precisa olhar para cima
+            boolean excludedHere = excluded.matches(relative, name) || (!included.isEmpty() && insideExcluded(relative));
+            return !excludedHere || included.matches(relative, name);
+        }
+
+        boolean acceptsDirectory(String relative, String name) {
+            return excluded.isEmpty() || !included.isEmpty() || !excluded.matches(relative, name);
+        }
+
+        private boolean insideExcluded(String relative) {
+            for (int slash = relative.lastIndexOf('/'); slash > 0; slash = relative.lastIndexOf('/', slash - 1)) {
+                String parent = relative.substring(0, slash);
+                if (excluded.matches(parent, parent.substring(parent.lastIndexOf('/') + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean acceptsFile(String relative, String name, long size, long lastModifiedMillis) {
+            if (maxSize >= 0 && size > maxSize) {
+                return false;
+            }
+            if (maxAgeDays >= 0 && System.currentTimeMillis() - lastModifiedMillis > TimeUnit.DAYS.toMillis(maxAgeDays)) {
+                return false;
+            }
+            return acceptsPath(relative, name);
+        }
+    }
+
+    private final List<Path> roots = new ArrayList<>();
+    private final Map<Path, Rules> rulesByRoot = new HashMap<>();
+    private final Rules globalRules;
+
+    private PathFilter(Rules globalRules) {
+        this.globalRules = globalRules;
+    }
+
+    public static PathFilter acceptAll() {
+        return parse(List.of(), List.of());
+    }
+
+    public static PathFilter load(Path arquivePath, List<String> sourcePaths) throws IOException {
+        return parse(Files.readAllLines(arquivePath), sourcePaths);
+    }
+
+    public static PathFilter parse(List<String> lines, List<String> sourcePaths) {
+        Rules global = new Rules();
+        Map<Path, Rules> sections = new HashMap<>();
+        Rules current = global;
+
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.startsWith("[") && line.endsWith("]")) {
+                current = sections.computeIfAbsent(Path.of(line.substring(1, line.length() - 1).trim()), root -> new Rules());
+                continue;
+            }
+
+            String[] params = line.split("\\s+", 2);
+            if (params.length < 2) {
+                Main.addLog("Error: invalid filter rule " + line);
+                continue;
+            }
+            String value = params[1].trim();
+            try {
+                switch (params[0]) {
+                    case "exclude" -> current.excluded.addGlob(value);
+                    case "include" -> current.included.addGlob(value);
+                    case "excludeRegex" -> current.excluded.addRegex(value);
+                    case "includeRegex" -> current.included.addRegex(value);
+                    case "maxSize" -> current.maxSize = parseSize(value);
+                    case "maxAgeDays" -> current.maxAgeDays = Long.parseLong(value);
+                    default -> Main.addLog("Error: invalid filter rule " + line);
+                }
+            } catch (RuntimeException e) {
+                Main.addLog("Error: invalid filter rule " + line + " " + e.getMessage());
+            }
+        }
+
+        global.compile();
+        PathFilter filter = new PathFilter(global);
+        for (String sourcePath : sourcePaths) {
+            Path root = Path.of(sourcePath);
+            Rules rules = new Rules();
+            rules.addAll(global);
+            Rules section = sections.remove(root);
+            if (section != null) {
+                rules.addAll(section);
+            }
+            rules.compile();
+            filter.roots.add(root);
+            filter.rulesByRoot.put(root, rules);
+        }
+        for (Path unknown : sections.keySet()) {
+            Main.addLog("Error: filter section for unknown source " + unknown);
+        }
+        return filter;
+    }
+
+    private static long parseSize(String value) {
+        String upper = value.toUpperCase(Locale.ROOT);
+        long multiplier = switch (upper.charAt(upper.length() - 1)) {
+            case 'K' -> 1024L;
+            case 'M' -> 1024L * 1024;
+            case 'G' -> 1024L * 1024 * 1024;
+            default -> 1;
+        };
+        String number = multiplier == 1 ? upper : upper.substring(0, upper.length() - 1);
+        return Long.parseLong(number.trim()) * multiplier;
+    }
+
+    private static boolean hasWildcard(String glob) {
+        return glob.indexOf('*') >= 0 || glob.indexOf('?') >= 0 || glob.indexOf('[') >= 0;
+    }
+
+    // ** atravessa pastas, * e ? ficam dentro de um nome, [...] é classe de caracteres
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                if (i + 2 < glob.length() && glob.charAt(i + 2) == '/') {
+                    regex.append("(?:.*/)?");
+                    i += 2;
+                } else {
+                    regex.append(".*");
+                    i++;
+                }
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 1);
+                if (end < 0) {
+                    regex.append("\\[");
+                } else {
+                    regex.append('[').append(glob, i + 1, end).append(']');
+                    i = end;
+                }
+            } else if ("\\.^$+{}()|".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+        }
+        return regex.toString();
+    }
+
+    // Pasta: false só quando nada abaixo dela pode ser aceito (pode podar a árvore)
+    public boolean acceptsDirectory(Path directory) {
+        Path root = rootOf(directory);
+        return root == null || root.equals(directory) || acceptsRelativeDirectory(root, root.relativize(directory));
+    }
+
+    public boolean acceptsRelativeDirectory(Path sourceRoot, Path relativePath) {
+        return rulesFor(sourceRoot).acceptsDirectory(relativeText(relativePath), nameOf(relativePath));
+    }
+
+    // Arquivo só pelo nome/caminho, para eventos e exclusões onde o arquivo pode nem existir mais
+    public boolean acceptsPath(Path path) {
+        Path root = rootOf(path);
+        return root == null || root.equals(path) || acceptsRelative(root, root.relativize(path));
+    }
+
+    public boolean acceptsRelative(Path sourceRoot, Path relativePath) {
+        return rulesFor(sourceRoot).acceptsPath(relativeText(relativePath), nameOf(relativePath));
+    }
+
+    // Arquivo com atributos já lidos (na varredura): também aplica tamanho e idade
+    public boolean acceptsFile(Path file, BasicFileAttributes attrs) {
+        Path root = rootOf(file);
+        if (root == null) {
+            return true;
+        }
+        return acceptsRelativeFile(root, root.relativize(file), attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    public boolean acceptsRelativeFile(Path sourceRoot, Path relativePath, long size, long lastModifiedMillis) {
+        return rulesFor(sourceRoot).acceptsFile(relativeText(relativePath), nameOf(relativePath), size, lastModifiedMillis);
+    }
+
+    private Rules rulesFor(Path sourceRoot) {
+        Rules rules = rulesByRoot.get(sourceRoot);
+        return rules != null ? rules : globalRules;
+    }
+
+    // Origem mais específica que contém o caminho
+    private Path rootOf(Path path) {
+        Path found = null;
+        for (Path root : roots) {
+            if (path.startsWith(root) && (found == null || root.getNameCount() > found.getNameCount())) {
+                found = root;
+            }
+        }
+        return found;
+    }
+
+    private static String relativeText(Path relativePath) {
+        return relativePath.toString().replace('\\', '/').toLowerCase(Locale.ROOT);
+    }
+
+    private static String nameOf(Path relativePath) {
+        Path name = relativePath.getFileName();
+        return name == null ? "" : name.toString().toLowerCase(Locale.ROOT);
+    }
+}
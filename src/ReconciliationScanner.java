@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Conferência periódica origem x destino.
+// Cada árvore é percorrida em profundidade com os filhos de cada pasta ordenados por nome,
+// então as duas listas saem na mesma ordem (caminho relativo comparado segmento a segmento)
+// e a comparação é um merge em streaming: só a pilha de pastas abertas fica em memória.
+// Origem e destino são lidos em paralelo (uma thread cada, com fila de prefetch) e várias
+// origens são conferidas ao mesmo tempo. Só as diferenças vão para o sink.
+// No destino um "<arquivo>.gedaz" (CompressedTransfer) conta como o próprio arquivo; como o
+// tamanho comprimido não diz nada, para ele só a data de modificação é comparada.
+// O PathFilter vale dos dois lados pelo caminho relativo (o que foi excluído não aparece como
+// faltando nem como sobrando); tamanho e idade só na origem.
+public class ReconciliationScanner {
+
+    public enum Difference {
+        MISSING, CHANGED, EXTRA
+    }
+
+    public interface DifferenceSink {
+        void accept(Path sourceRoot, Path relativePath, Difference difference);
+    }
+
+    // size -1: tamanho desconhecido (arquivo comprimido no destino)
+    private record FileEntry(Path relativePath, long size, long lastModifiedMillis) {
+    }
+
+    private static final FileEntry END = new FileEntry(null, 0, 0);
+    private static final int PREFETCH = 4096;
+
+    private final int threads;
+    private final long modifiedToleranceMillis;
+    private final Predicate<Path> destinationFilter;
+    private final PathFilter pathFilter;
+    private final DifferenceSink sink;
+
+    private final AtomicLong comparedFiles = new AtomicLong();
+    private final AtomicLong differences = new AtomicLong();
+
+    // destinationFilter: arquivos do destino que não são cópias (assinaturas, manifestos) retornam false
+    public ReconciliationScanner(int threads, long modifiedToleranceMillis, Predicate<Path> destinationFilter,
+                                 PathFilter pathFilter, DifferenceSink sink) {
+        this.threads = threads;
+        this.modifiedToleranceMillis = modifiedToleranceMillis;
+        this.destinationFilter = destinationFilter;
+        this.pathFilter = pathFilter;
+        this.sink = sink;
+    }
+
+    public void run(List<Path> sourceRoots, List<Path> destinationRoots) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        comparedFiles.set(0);
+        differences.set(0);
+
+        // Cada raiz em andamento usa 2 threads de leitura (origem e destino) além da que faz o merge
+        ExecutorService executor = Executors.newFixedThreadPool(threads * 2, ReconciliationScanner::daemonThread);
+        ExecutorService roots = Executors.newFixedThreadPool(threads, ReconciliationScanner::daemonThread);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < sourceRoots.size(); i++) {
+                Path sourceRoot = sourceRoots.get(i);
+                Path destinationRoot = destinationRoots.get(i);
+                results.add(roots.submit(() -> {
+                    compare(executor, sourceRoot, destinationRoot);
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    Main.addLog("Error: reconcile " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            roots.shutdownNow();
+            executor.shutdownNow();
+        }
+
+        Main.addLog("Info: reconcile finished, compared " + comparedFiles.get()
+                + " differences " + differences.get()
+                + " in " + (System.currentTimeMillis() - start) / 1000 + "s");
+    }
+
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "reconcile");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    public long comparedFiles() {
+        return comparedFiles.get();
+    }
+
+    public long differences() {
+        return differences.get();
+    }
+
+    private void compare(ExecutorService executor, Path sourceRoot, Path destinationRoot) throws InterruptedException {
+        BlockingQueue<FileEntry> sourceQueue = new ArrayBlockingQueue<>(PREFETCH);
+        BlockingQueue<FileEntry> destinationQueue = new ArrayBlockingQueue<>(PREFETCH);
+        executor.execute(() -> produce(sourceRoot, sourceRoot, path -> true, false, sourceQueue));
+        executor.execute(() -> produce(sourceRoot, destinationRoot, destinationFilter, true, destinationQueue));
+
+        FileEntry source = sourceQueue.take();
+        FileEntry destination = destinationQueue.take();
+        Path previousDestination = null;
+
+        while (source != END || destination != END) {
+            // Versão comprimida e sem compressão do mesmo arquivo lado a lado: conta uma vez só
+            if (destination != END && destination.relativePath().equals(previousDestination)) {
+                destination = destinationQueue.take();
+                continue;
+            }
+
+            int order = source == END ? 1 : destination == END ? -1 : compareRelative(source.relativePath(), destination.relativePath());
+
+            if (order < 0) {
+                report(sourceRoot, source.relativePath(), Difference.MISSING);
+                source = sourceQueue.take();
+            } else if (order > 0) {
+                report(sourceRoot, destination.relativePath(), Difference.EXTRA);
+                previousDestination = destination.relativePath();
+                destination = destinationQueue.take();
+            } else {
+                comparedFiles.incrementAndGet();
+                if ((destination.size() >= 0 && source.size() != destination.size())
+                        || source.lastModifiedMillis() > destination.lastModifiedMillis() + modifiedToleranceMillis) {
+                    report(sourceRoot, source.relativePath(), Difference.CHANGED);
+                }
+                previousDestination = destination.relativePath();
+                source = sourceQueue.take();
+                destination = destinationQueue.take();
+            }
+        }
+    }
+
+    private void report(Path sourceRoot, Path relativePath, Difference difference) {
+        differences.incrementAndGet();
+        try {
+            sink.accept(sourceRoot, relativePath, difference);
+        } catch (RuntimeException e) {
+            Main.addLog("Error: reconcile difference " + relativePath + " " + e);
+        }
+    }
+
+    // Mesma ordem usada para ordenar os filhos de cada pasta
+    static int compareRelative(Path a, Path b) {
+        int count = Math.min(a.getNameCount(), b.getNameCount());
+        for (int i = 0; i < count; i++) {
+            int order = a.getName(i).toString().compareTo(b.getName(i).toString());
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(a.getNameCount(), b.getNameCount());
+    }
+
+    // O END sai sempre, senão o merge fica parado no take() para sempre
+    private void produce(Path sourceRoot, Path root, Predicate<Path> filter, boolean destination, BlockingQueue<FileEntry> queue) {
+        boolean interrupted = false;
+        try {
+            if (Files.isDirectory(root)) {
+                walk(sourceRoot, root, filter, destination, queue);
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+        } catch (RuntimeException e) {
+            Main.addLog("Error: reconcile walk " + root + " " + e);
+        } finally {
+            // Limpa a interrupção só para conseguir entregar o END; o merge ainda está consumindo
+            interrupted |= Thread.interrupted();
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                interrupted = true; // o merge também foi cancelado (shutdownNow)
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Profundidade com os filhos ordenados; a pilha guarda só as pastas ainda não terminadas
+    // sourceRoot escolhe as regras do PathFilter, root é a árvore percorrida (origem ou destino)
+    private void walk(Path sourceRoot, Path root, Predicate<Path> filter, boolean destination, BlockingQueue<FileEntry> queue) throws InterruptedException {
+        Deque<ArrayDeque<Path>> stack = new ArrayDeque<>();
+        stack.push(sortedChildren(root, destination));
+
+        while (!stack.isEmpty()) {
+            ArrayDeque<Path> siblings = stack.peek();
+            Path next = siblings.poll();
+            if (next == null) {
+                stack.pop();
+                continue;
+            }
+
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(next, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                continue; // sumiu durante a varredura
+            }
+
+            if (attrs.isDirectory()) {
+                if (pathFilter.acceptsRelativeDirectory(sourceRoot, root.relativize(next))) {
+                    stack.push(sortedChildren(next, destination));
+                }
+            } else if (attrs.isRegularFile() && filter.test(next)) {
+                if (destination) {
+                    boolean compressed = CompressedTransfer.isCompressedFile(next);
+                    Path relative = root.relativize(compressed ? CompressedTransfer.originalPathFor(next) : next);
+                    if (pathFilter.acceptsRelative(sourceRoot, relative)) {
+                        queue.put(new FileEntry(relative, compressed ? -1 : attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                } else {
+                    Path relative = root.relativize(next);
+                    if (pathFilter.acceptsRelativeFile(sourceRoot, relative, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                        queue.put(new FileEntry(relative, attrs.size(), attrs.lastModifiedTime().toMillis()));
+                    }
+                }
+            }
+        }
+    }
+
+    // No destino a ordem é pelo nome sem o sufixo de compressão, a mesma ordem da origem
+    private static ArrayDeque<Path> sortedChildren(Path directory, boolean destination) {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+            for (Path entry : entries) {
+                children.add(entry);
+            }
+        } catch (IOException e) {
+            Main.addLog("Error: reconcile list " + directory + " " + e);
+        }
+
+        Path[] sorted = children.toArray(new Path[0]);
+        Arrays.sort(sorted, (a, b) -> sortName(a, destination).compareTo(sortName(b, destination)));
+        return new ArrayDeque<>(Arrays.asList(sorted));
+    }
+
+    private static String sortName(Path path, boolean destination) {
+        String name = path.getFileName().toString();
+        if (destination && CompressedTransfer.isCompressedFile(path)) {
+            return name.substring(0, name.length() - CompressedTransfer.COMPRESSED_SUFFIX.length());
+        }
+        return name;
+    }
+}
@@ -0,0 +1,305 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Restauração a partir do catálogo (PathControl): seleciona as entradas cuja origem está dentro
+// de um prefixo, encontra a versão de cada uma no destino (cópia simples, .gedaz, manifesto de
+// pedaços, segmento ou geração de snapshot) e grava de volta no caminho de origem ou numa pasta
+// alvo. Os arquivos usados mais recentemente (última cópia mais nova) saem primeiro, em paralelo
+// e com limite de banda próprio.
+//
+// Com um instante (at) o estado restaurado é o do início da geração de snapshot que contém esse
+// instante; arquivos criados depois disso ficam de fora e apagados depois disso voltam.
+public class RestoreEngine {
+
+    private record Job(PathControlCatalog.Entry entry, Path target) {
+    }
+
+    private final Path baseDestination;
+    private final PathControlCatalog catalog;
+    private final SegmentStore segmentStore;
+    private final ChunkStore chunkStore;
+    private final BandwidthGovernor governor;
+    private final TransferEngine transferEngine;
+    private final int threads;
+
+    // Conteúdo das gerações, lido uma vez: arquivo relativo ao destino e posições empacotadas
+    private List<String> generations;
+    private final Map<String, Set<String>> generationFiles = new HashMap<>();
+    private final Map<String, Map<String, SegmentStore.Location>> generationPacked = new HashMap<>();
+
+    private final AtomicLong restoredFiles = new AtomicLong();
+    private final AtomicLong restoredBytes = new AtomicLong();
+    private final AtomicLong skippedFiles = new AtomicLong();
+    private final AtomicLong failedFiles = new AtomicLong();
+
+    public RestoreEngine(Path baseDestination, PathControlCatalog catalog, SegmentStore segmentStore, ChunkStore chunkStore,
+                         BandwidthGovernor governor, int chunkSize, int threads) {
+        this.baseDestination = baseDestination;
+        this.catalog = catalog;
+        this.segmentStore = segmentStore;
+        this.chunkStore = chunkStore;
+        this.governor = governor;
+        this.transferEngine = new TransferEngine(governor, chunkSize);
+        this.threads = threads;
+    }
+
+    // target null restaura no caminho de origem. Devolve true se nada falhou.
+    public boolean restore(Path prefix, Instant at, Path target) throws IOException, InterruptedException {
+        long startNanos = System.nanoTime();
+        List<PathControlCatalog.Entry> entries = select(prefix, at);
+        Main.addLog("Info: restore " + prefix + (at == null ? "" : " at " + at) + " files " + entries.size()
+                + (target == null ? "" : " to " + target));
+
+        if (at != null) {
+            loadGenerations();
+        }
+
+        // Mais recentes primeiro: quem estava trabalhando neles volta antes
+        entries.sort(Comparator.comparing(PathControlCatalog.Entry::timestamp).reversed());
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "restore-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (PathControlCatalog.Entry entry : entries) {
+            Path source = Path.of(entry.source());
+            Path restoreTarget = target == null ? source
+                    : source.equals(prefix) ? target.resolve(source.getFileName())
+                    : target.resolve(prefix.relativize(source));
+            Job job = new Job(entry, restoreTarget);
+            workers.execute(() -> run(job, at));
+        }
+        workers.shutdown();
+        while (!workers.awaitTermination(30, TimeUnit.SECONDS)) {
+            Main.addLog("Info: restore progress files " + restoredFiles.get() + " bytes " + restoredBytes.get()
+                    + " failed " + failedFiles.get());
+        }
+
+        Main.addLog("Info: restore finished files " + restoredFiles.get() + " bytes " + restoredBytes.get()
+                + " skipped " + skippedFiles.get() + " failed " + failedFiles.get()
+                + " in " + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos) + "s");
+        return failedFiles.get() == 0;
+    }
+
+    // Entradas do prefixo (arquivo ou pasta). Sem instante só as ativas; com instante também as
+    // apagadas depois dele.
+    private List<PathControlCatalog.Entry> select(Path prefix, Instant at) {
+        List<PathControlCatalog.Entry> selected = new ArrayList<>();
+        PathControlCatalog.Entry single = catalog.get(prefix);
+        List<PathControlCatalog.Entry> candidates = single != null ? List.of(single) : catalog.entriesUnder(prefix, at != null);
+        for (PathControlCatalog.Entry entry : candidates) {
+            if (!entry.deleted() || (at != null && entry.timestamp().isAfter(at))) {
+                selected.add(entry);
+            }
+        }
+        return selected;
+    }
+
+    private void run(Job job, Instant at) {
+        Path destination = Path.of(job.entry().destination());
+        try {
+            long restored = at == null ? restoreLatest(destination, job) : restoreAt(destination, job, at);
+            if (restored < 0) {
+                skippedFiles.incrementAndGet();
+                return;
+            }
+            restoredFiles.incrementAndGet();
+            restoredBytes.addAndGet(restored);
+        } catch (IOException e) {
+            failedFiles.incrementAndGet();
+            Main.addLog("Error: restore " + job.entry().source() + " " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Versão atual. Devolve os bytes restaurados, ou -1 se o alvo já estava igual.
+    private long restoreLatest(Path destination, Job job) throws IOException, InterruptedException {
+        long restored;
+        SegmentStore.Location packed = segmentStore == null ? null : segmentStore.get(destination);
+        if (packed != null) {
+            if (sameFile(job.target(), packed.length(), packed.lastModifiedMillis())) {
+                return -1;
+            }
+            governor.acquire(packed.length());
+            segmentStore.restore(destination, job.target());
+            restored = packed.length();
+        } else {
+            restored = restoreFile(destination, job.target());
+            if (restored < 0) {
+                return -1;
+            }
+        }
+
+        // A versão atual tem o checksum gravado na cópia
+        long expected = job.entry().checksum();
+        if (expected >= 0 && IntegrityVerifier.checksumOf(job.target()) != expected) {
+            throw new IOException("checksum mismatch after restore " + job.target());
+        }
+        return restored;
+    }
+
+    // Versão no início da geração que contém at. -1: já estava igual ou não existia naquele momento.
+    private long restoreAt(Path destination, Job job, Instant at) throws IOException, InterruptedException {
+        String boundary = SnapshotManager.generationAt(generations, at);
+        long boundaryMillis = boundary == null ? at.toEpochMilli() : SnapshotManager.startMillisOf(boundary);
+        String relative = baseDestination.relativize(destination).toString();
+
+        if (boundary != null) {
+            for (String generation : generations) {
+                if (generation.compareTo(boundary) < 0) {
+                    continue;
+                }
+                Path generationRoot = baseDestination.resolve(SnapshotManager.SNAPSHOTS_FOLDER).resolve(generation);
+                SegmentStore.Location packed = generationPacked.get(generation).get(relative);
+                if (packed != null) {
+                    if (packed.lastModifiedMillis() > boundaryMillis || sameFile(job.target(), packed.length(), packed.lastModifiedMillis())) {
+                        return -1;
+                    }
+                    governor.acquire(packed.length());
+                    SegmentStore.restore(baseDestination.resolve(SegmentStore.SEGMENTS_FOLDER), relative, packed, job.target());
+                    return packed.length();
+                }
+                Set<String> files = generationFiles.get(generation);
+                if (files.contains(relative) || files.contains(relative + CompressedTransfer.COMPRESSED_SUFFIX)
+                        || files.contains(ChunkStore.manifestPathFor(Path.of(relative)).toString())) {
+                    Path version = generationRoot.resolve(relative);
+                    if (modifiedMillis(version) > boundaryMillis) {
+                        return -1; // ainda não existia no início da geração
+                    }
+                    return restoreFile(version, job.target());
+                }
+            }
+        }
+
+        // Nenhuma geração guardou uma versão anterior: vale a atual, se já existia naquele momento
+        SegmentStore.Location packed = segmentStore == null ? null : segmentStore.get(destination);
+        long currentModified = packed != null ? packed.lastModifiedMillis() : modifiedMillis(destination);
+        if (packed == null && currentModified == Long.MAX_VALUE) {
+            // Apagado na origem e movido para a retenção (delete.retention=1)
+            Path retained = retentionVersion(relative);
+            if (retained == null || modifiedMillis(retained) > boundaryMillis) {
+                return -1;
+            }
+            return restoreFile(retained, job.target());
+        }
+        if (currentModified > boundaryMillis) {
+            return -1;
+        }
+        return restoreLatest(destination, job);
+    }
+
+    // Cópia mais recente do arquivo nas pastas .retention\yyyyMMdd
+    private Path retentionVersion(String relative) throws IOException {
+        Path retentionRoot = baseDestination.resolve(".retention");
+        if (Files.notExists(retentionRoot)) {
+            return null;
+        }
+        List<Path> days;
+        try (var list = Files.list(retentionRoot)) {
+            days = list.sorted(Comparator.reverseOrder()).toList();
+        }
+        for (Path day : days) {
+            Path candidate = day.resolve(relative);
+            if (modifiedMillis(candidate) != Long.MAX_VALUE) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Restaura um arquivo do destino (ou de uma geração) em qualquer formato gravado
+    private long restoreFile(Path version, Path target) throws IOException, InterruptedException {
+        Path compressed = CompressedTransfer.compressedPathFor(version);
+        Path manifest = ChunkStore.manifestPathFor(version);
+
+        if (Files.exists(version)) {
+            BasicFileAttributes attrs = Files.readAttributes(version, BasicFileAttributes.class);
+            if (sameFile(target, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+                return -1;
+            }
+            if (target.getParent() != null) {
+                Files.createDirectories(target.getParent());
+            }
+            return transferEngine.copy(version, target);
+        }
+        if (Files.exists(compressed)) {
+            if (sameModified(target, Files.getLastModifiedTime(compressed).toMillis())) {
+                return -1;
+            }
+            governor.acquire(Files.size(compressed));
+            CompressedTransfer.restore(compressed, target);
+            return Files.size(target);
+        }
+        if (chunkStore != null && Files.exists(manifest)) {
+            chunkStore.restore(manifest, target);
+            long restored = Files.size(target);
+            governor.acquire(restored);
+            return restored;
+        }
+        throw new IOException("no backup version found for " + version);
+    }
+
+    private static boolean sameFile(Path target, long size, long modifiedMillis) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(target, BasicFileAttributes.class);
+            return attrs.size() == size && attrs.lastModifiedTime().toMillis() == modifiedMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static boolean sameModified(Path target, long modifiedMillis) {
+        try {
+            return Files.getLastModifiedTime(target).toMillis() == modifiedMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Data da versão em qualquer formato (.gedaz fica com a data do original); Long.MAX_VALUE se não existe
+    private static long modifiedMillis(Path version) throws IOException {
+        for (Path candidate : List.of(version, CompressedTransfer.compressedPathFor(version), ChunkStore.manifestPathFor(version))) {
+            if (Files.exists(candidate)) {
+                return Files.getLastModifiedTime(candidate).toMillis();
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private void loadGenerations() throws IOException {
+        Path snapshotsRoot = baseDestination.resolve(SnapshotManager.SNAPSHOTS_FOLDER);
+        generations = SnapshotManager.generations(snapshotsRoot);
+        for (String generation : generations) {
+            Path generationRoot = snapshotsRoot.resolve(generation);
+            Set<String> files = new HashSet<>();
+            Files.walkFileTree(generationRoot, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    files.add(generationRoot.relativize(file).toString());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            generationFiles.put(generation, files);
+            generationPacked.put(generation, SnapshotManager.readPacked(generationRoot));
+        }
+        Main.addLog("Info: restore snapshot generations " + generations);
+    }
+}
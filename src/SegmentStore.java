@@ -0,0 +1,354 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+// Empacota arquivos pequenos em segmentos grandes no destino (base\.segments\segment-N.seg).
+// Em vez de um open/create/close no compartilhamento para cada arquivo, cada arquivo vira um
+// registro anexado ao segmento atual, que fica aberto; quando o segmento passa de segmentSize
+// um novo é aberto.
+// O índice (index.txt na mesma pasta) é um journal "caminho|segmento|posição|tamanho|data",
+// a última linha de cada caminho vale e "caminho|DELETED" remove. Ele só é gravado depois dos
+// dados, então um arquivo que está no índice está inteiro no segmento.
+// store() só retorna depois que o registro e a linha do índice saíram do buffer: quem chama
+// marca o arquivo como copiado no catálogo em seguida, e isso não pode sumir num crash.
+// O flush periódico fica para as remoções.
+// Versões antigas continuam nos segmentos (append-only); só o índice aponta para a atual.
+public class SegmentStore {
+
+    static final String SEGMENTS_FOLDER = ".segments";
+
+    private static final int RECORD_MAGIC = 0x47534547; // "GSEG"
+    private static final String INDEX_NAME = "index.txt";
+    private static final String DELETED_MARKER = "DELETED";
+    private static final int WRITE_BUFFER = 8 * 1024 * 1024;
+
+    public record Location(int segment, long offset, long length, long lastModifiedMillis) {
+    }
+
+    private final Path baseDestination;
+    private final Path segmentsRoot;
+    private final BandwidthGovernor governor;
+    private final long maxFileSize;
+    private final long segmentSize;
+    private final Map<String, Location> index = new HashMap<>();
+    private final StringBuilder pendingIndex = new StringBuilder();
+    private final ScheduledExecutorService flusher;
+
+    private int currentSegment;
+    private long currentOffset;
+    private DataOutputStream segmentOutput;
+    private BufferedWriter indexWriter;
+    private long liveBytes;
+
+    private SegmentStore(Path baseDestination, BandwidthGovernor governor, long maxFileSize, long segmentSize) throws IOException {
+        this.baseDestination = baseDestination;
+        this.segmentsRoot = baseDestination.resolve(SEGMENTS_FOLDER);
+        this.governor = governor;
+        this.maxFileSize = maxFileSize;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(segmentsRoot);
+        loadIndex();
+        currentSegment = lastSegmentNumber() + 1; // depois de reiniciar sempre começa um segmento novo
+        indexWriter = Files.newBufferedWriter(segmentsRoot.resolve(INDEX_NAME), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Main.addLog("Info: segment store files " + index.size() + " live bytes " + liveBytes + " next segment " + currentSegment);
+    }
+
+    // O flush periódico só é agendado depois que o objeto está construído
+    public static SegmentStore open(Path baseDestination, BandwidthGovernor governor, long maxFileSize, long segmentSize, long flushMillis) throws IOException {
+        SegmentStore store = new SegmentStore(baseDestination, governor, maxFileSize, segmentSize);
+        store.flusher.scheduleWithFixedDelay(store::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    public boolean accepts(long size) {
+        return size <= maxFileSize;
+    }
+
+    public synchronized long size() {
+        return index.size();
+    }
+
+    public synchronized Location get(Path destination) {
+        return index.get(keyOf(destination));
+    }
+
+    // Já está empacotado com essa data de modificação (usado pela conferência origem x destino)
+    public synchronized boolean isCurrent(Path destination, long lastModifiedMillis) {
+        Location location = index.get(keyOf(destination));
+        return location != null && location.lastModifiedMillis() == lastModifiedMillis;
+    }
+
+    public synchronized void forEach(BiConsumer<Path, Location> consumer) {
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            consumer.accept(baseDestination.resolve(entry.getKey()), entry.getValue());
+        }
+    }
+
+    // Devolve os bytes gravados no segmento. checksum (opcional) recebe o conteúdo da origem.
+    public long store(Path source, Path destination, Checksum checksum) throws IOException, InterruptedException {
+        // A leitura da origem e a espera pela banda ficam fora do lock
+        long lastModifiedMillis = Files.getLastModifiedTime(source).toMillis();
+        byte[] data = Files.readAllBytes(source);
+        if (checksum != null) {
+            checksum.update(data, 0, data.length);
+        }
+        byte[] key = keyOf(destination).getBytes(StandardCharsets.UTF_8);
+        long recordLength = 4 + 4 + key.length + 8 + 8 + data.length;
+        governor.acquire(recordLength);
+
+        synchronized (this) {
+            if (segmentOutput == null || currentOffset >= segmentSize) {
+                openNextSegment();
+            }
+
+            long offset = currentOffset;
+            segmentOutput.writeInt(RECORD_MAGIC);
+            segmentOutput.writeInt(key.length);
+            segmentOutput.write(key);
+            segmentOutput.writeLong(data.length);
+            segmentOutput.writeLong(lastModifiedMillis);
+            segmentOutput.write(data);
+            currentOffset += recordLength;
+            segmentOutput.flush(); // o registro tem que estar no segmento antes de entrar no índice
+
+            Location location = new Location(currentSegment, offset, data.length, lastModifiedMillis);
+            pendingIndex.append(keyOf(destination)).append('|').append(location.segment()).append('|')
+                    .append(location.offset()).append('|').append(location.length()).append('|')
+                    .append(location.lastModifiedMillis()).append('\n');
+            flush();
+            Location previous = index.put(keyOf(destination), location);
+            liveBytes += data.length - (previous == null ? 0 : previous.length());
+        }
+        return recordLength;
+    }
+
+    // O arquivo foi gravado fora dos segmentos (cresceu além do limite) ou apagado na origem
+    public synchronized boolean remove(Path destination) {
+        Location previous = index.remove(keyOf(destination));
+        if (previous == null) {
+            return false;
+        }
+        liveBytes -= previous.length();
+        pendingIndex.append(keyOf(destination)).append('|').append(DELETED_MARKER).append('\n');
+        return true;
+    }
+
+    // Dados primeiro, índice depois
+    public synchronized void flush() throws IOException {
+        if (segmentOutput != null) {
+            segmentOutput.flush();
+        }
+        if (pendingIndex.length() > 0) {
+            indexWriter.write(pendingIndex.toString());
+            indexWriter.flush();
+            pendingIndex.setLength(0);
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        flusher.shutdownNow();
+        flush();
+        if (segmentOutput != null) {
+            segmentOutput.close();
+            segmentOutput = null;
+        }
+        indexWriter.close();
+    }
+
+    // Lê a versão atual do arquivo empacotado e grava em target com a data original
+    public void restore(Path destination, Path target) throws IOException {
+        restore(segmentsRoot, keyOf(destination), locate(destination), target);
+    }
+
+    // Checksum do conteúdo que está no segmento, para conferir a cópia lendo de volta
+    public long contentChecksum(Path destination) throws IOException {
+        Location location = locate(destination);
+        CRC32C checksum = new CRC32C();
+        readRecord(segmentsRoot, keyOf(destination), location, new CheckedOutputStream(OutputStream.nullOutputStream(), checksum));
+        return checksum.getValue();
+    }
+
+    private Location locate(Path destination) throws IOException {
+        Location location;
+        synchronized (this) {
+            location = index.get(keyOf(destination));
+            if (location != null && location.segment() == currentSegment) {
+                flush(); // pode estar ainda no buffer
+            }
+        }
+        if (location == null) {
+            throw new IOException("Not in the segment store: " + destination);
+        }
+        return location;
+    }
+
+    static void restore(Path segmentsRoot, String key, Location location, Path target) throws IOException {
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+        long lastModifiedMillis;
+        try (OutputStream output = Files.newOutputStream(target)) {
+            lastModifiedMillis = readRecord(segmentsRoot, key, location, output);
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(lastModifiedMillis));
+    }
+
+    // Copia o conteúdo do registro para output e devolve a data de modificação gravada nele
+    private static long readRecord(Path segmentsRoot, String key, Location location, OutputStream output) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segmentsRoot, location.segment()), StandardOpenOption.READ)) {
+            channel.position(location.offset());
+            DataInputStream input = new DataInputStream(Channels.newInputStream(channel));
+
+            byte[] expectedKey = key.getBytes(StandardCharsets.UTF_8);
+            if (input.readInt() != RECORD_MAGIC || input.readInt() != expectedKey.length) {
+                throw new IOException("Corrupt segment record for " + key);
+            }
+            byte[] storedKey = input.readNBytes(expectedKey.length);
+            if (!Arrays.equals(storedKey, expectedKey)) {
+                throw new IOException("Segment record belongs to another file: " + new String(storedKey, StandardCharsets.UTF_8));
+            }
+            long length = input.readLong();
+            long lastModifiedMillis = input.readLong();
+            if (length != location.length()) {
+                throw new IOException("Segment record length mismatch for " + key);
+            }
+
+            InputStream limited = new BoundedInput(input, length);
+            if (limited.transferTo(output) != length) {
+                throw new IOException("Segment truncated for " + key);
+            }
+            return lastModifiedMillis;
+        }
+    }
+
+    private String keyOf(Path destination) {
+        return destination.startsWith(baseDestination) ? baseDestination.relativize(destination).toString() : destination.toString();
+    }
+
+    private static Path segmentPath(Path segmentsRoot, int segment) {
+        return segmentsRoot.resolve(String.format("segment-%06d.seg", segment));
+    }
+
+    private void openNextSegment() throws IOException {
+        if (segmentOutput != null) {
+            flush();
+            segmentOutput.close();
+            currentSegment++;
+        }
+        FileChannel channel = FileChannel.open(segmentPath(segmentsRoot, currentSegment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentOffset = channel.size();
+        segmentOutput = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            Main.addLog("Error: segment flush " + e);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        Path indexPath = segmentsRoot.resolve(INDEX_NAME);
+        if (Files.notExists(indexPath)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] params = line.split("\\|");
+                try {
+                    if (params.length == 2 && params[1].equals(DELETED_MARKER)) {
+                        Location previous = index.remove(params[0]);
+                        liveBytes -= previous == null ? 0 : previous.length();
+                    } else if (params.length == 5) {
+                        Location location = new Location(Integer.parseInt(params[1]), Long.parseLong(params[2]),
+                                Long.parseLong(params[3]), Long.parseLong(params[4]));
+                        Location previous = index.put(params[0], location);
+                        liveBytes += location.length() - (previous == null ? 0 : previous.length());
+                    }
+                } catch (NumberFormatException e) {
+                    Main.addLog("Error: segment index invalid line " + line); // linha cortada por uma queda
+                }
+            }
+        }
+    }
+
+    private int lastSegmentNumber() throws IOException {
+        try (Stream<Path> files = Files.list(segmentsRoot)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("segment-\\d+\\.seg"))
+                    .mapToInt(name -> Integer.parseInt(name.substring(8, name.length() - 4)))
+                    .max()
+                    .orElse(0);
+        }
+    }
+
+    // Lê no máximo length bytes do stream do segmento
+    private static class BoundedInput extends InputStream {
+        private final InputStream input;
+        private long remaining;
+
+        BoundedInput(InputStream input, long remaining) {
+            this.input = input;
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int value = input.read();
+            if (value >= 0) {
+                remaining--;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = input.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+// Gerações de snapshot no destino (base\.snapshots\<yyyyMMdd-HHmmss>).
+// A árvore normal do destino é sempre a versão atual. Antes de um arquivo ser sobrescrito pela
+// primeira vez numa geração, a versão antiga ganha um hard link dentro da geração (sem copiar
+// dados); se o compartilhamento não aceitar hard link (ou a geração estiver em outro volume),
+// é feita uma cópia no próprio servidor. Qualquer outro erro do link falha só aquele arquivo.
+// Uma geração guarda só o que mudou durante ela, então o custo é proporcional às mudanças.
+//
+// O estado no início da geração G de um arquivo é a versão na primeira geração >= G que o tem,
+// ou a versão atual se nenhuma tiver (ver RestoreEngine). Arquivos empacotados não são copiados:
+// a posição antiga no segmento vai para packed.txt da geração.
+//
+// Retenção: ficam as gerações dos últimos keepDays dias, a primeira de cada semana nas últimas
+// keepWeeks semanas e a primeira de cada mês nos últimos keepMonths meses. Uma geração removida
+// passa para a geração anterior mantida os arquivos que ela não tem, para o estado dessa
+// anterior continuar certo.
+public class SnapshotManager {
+
+    static final String SNAPSHOTS_FOLDER = ".snapshots";
+    static final String PACKED_INDEX = "packed.txt";
+    static final DateTimeFormatter GENERATION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final Path baseDestination;
+    private final Path snapshotsRoot;
+    private final long intervalMillis;
+    private final int keepDays;
+    private final int keepWeeks;
+    private final int keepMonths;
+
+    private String currentGeneration;
+    private long generationStartMillis;
+    private DestinationIndex preserved; // arquivos que já têm a versão antiga na geração atual
+    private volatile boolean hardLinks = true;
+
+    private SnapshotManager(Path baseDestination, long intervalMillis, int keepDays, int keepWeeks, int keepMonths) {
+        this.baseDestination = baseDestination;
+        this.snapshotsRoot = baseDestination.resolve(SNAPSHOTS_FOLDER);
+        this.intervalMillis = intervalMillis;
+        this.keepDays = keepDays;
+        this.keepWeeks = keepWeeks;
+        this.keepMonths = keepMonths;
+    }
+
+    // Abre (ou continua) a geração atual e aplica a retenção depois de construído
+    public static SnapshotManager open(Path baseDestination, long intervalMillis, int keepDays, int keepWeeks, int keepMonths) throws IOException {
+        SnapshotManager manager = new SnapshotManager(baseDestination, intervalMillis, keepDays, keepWeeks, keepMonths);
+        Files.createDirectories(manager.snapshotsRoot);
+        List<String> generations = generations(manager.snapshotsRoot);
+        String last = generations.isEmpty() ? null : generations.get(generations.size() - 1);
+        if (last != null && startMillisOf(last) + intervalMillis > System.currentTimeMillis()) {
+            manager.openGeneration(last);
+        } else {
+            manager.openGeneration(LocalDateTime.now().format(GENERATION_FORMAT));
+        }
+        manager.prune();
+        return manager;
+    }
+
+    // Gerações existentes, da mais antiga para a mais nova
+    static List<String> generations(Path snapshotsRoot) throws IOException {
+        if (Files.notExists(snapshotsRoot)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> list = Files.list(snapshotsRoot)) {
+            return list.filter(Files::isDirectory)
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.matches("\\d{8}-\\d{6}"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    static long startMillisOf(String generation) {
+        return LocalDateTime.parse(generation, GENERATION_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    // Arquivo da geração que tem a versão de file (caminho no destino) no início de generation
+    Path pathIn(String generation, Path file) {
+        return snapshotsRoot.resolve(generation).resolve(baseDestination.relativize(file));
+    }
+
+    public synchronized String currentGeneration() {
+        return currentGeneration;
+    }
+
+    // Chamado antes de sobrescrever file no destino, que pode ser trocado por rename (hard link)
+    public void preserve(Path file) throws IOException {
+        preserve(file, false);
+    }
+
+    // inPlace: quem vai gravar altera o próprio arquivo (cópia delta), então hard link não serve
+    public void preserve(Path file, boolean inPlace) throws IOException {
+        // Só a marcação fica no lock; link e cópia rodam em paralelo entre os workers
+        Path target;
+        DestinationIndex generationIndex;
+        synchronized (this) {
+            rotateIfDue();
+            if (preserved.contains(file)) {
+                return;
+            }
+            target = pathIn(currentGeneration, file);
+            generationIndex = preserved;
+            generationIndex.update(file, 0);
+        }
+
+        try {
+            if (Files.notExists(file)) {
+                return;
+            }
+            Files.createDirectories(target.getParent());
+            if (!inPlace && hardLinks) {
+                try {
+                    Files.createLink(target, file);
+                    return;
+                } catch (UnsupportedOperationException e) {
+                    hardLinks = false;
+                    Main.addLog("Info: snapshot hard links not supported, using copies " + e);
+                } catch (FileSystemException e) {
+                    if (!isCrossDevice(e)) {
+                        throw e;
+                    }
+                    hardLinks = false;
+                    Main.addLog("Info: snapshot hard links not possible across volumes, using copies " + e);
+                }
+            }
+            Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            generationIndex.remove(file);
+            throw e;
+        }
+    }
+
+    // EXDEV no Linux, ERROR_NOT_SAME_DEVICE no Windows: só aparecem na mensagem do sistema
+    private static boolean isCrossDevice(FileSystemException e) {
+        String reason = e.getReason() == null ? "" : e.getReason().toLowerCase(Locale.ROOT);
+        return reason.contains("cross-device") || reason.contains("different disk drive");
+    }
+
+    // Versão empacotada que vai ser substituída: guarda só a posição no segmento
+    public synchronized void preservePacked(Path file, SegmentStore.Location location) throws IOException {
+        rotateIfDue();
+        if (location == null || preserved.contains(file)) {
+            return;
+        }
+        Path generationRoot = snapshotsRoot.resolve(currentGeneration);
+        Files.createDirectories(generationRoot);
+        try (BufferedWriter writer = Files.newBufferedWriter(generationRoot.resolve(PACKED_INDEX), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(packedLine(baseDestination.relativize(file).toString(), location));
+            writer.newLine();
+        }
+        preserved.update(file, 0);
+    }
+
+    private static String packedLine(String key, SegmentStore.Location location) {
+        return key + "|" + location.segment() + "|" + location.offset() + "|" + location.length() + "|" + location.lastModifiedMillis();
+    }
+
+    // Lê o packed.txt de uma geração: chave (caminho relativo ao destino) -> posição no segmento
+    static Map<String, SegmentStore.Location> readPacked(Path generationRoot) throws IOException {
+        Map<String, SegmentStore.Location> packed = new LinkedHashMap<>();
+        Path index = generationRoot.resolve(PACKED_INDEX);
+        if (Files.notExists(index)) {
+            return packed;
+        }
+        for (String line : Files.readAllLines(index, StandardCharsets.UTF_8)) {
+            String[] params = line.split("\\|");
+            if (params.length == 5) {
+                packed.putIfAbsent(params[0], new SegmentStore.Location(Integer.parseInt(params[1]),
+                        Long.parseLong(params[2]), Long.parseLong(params[3]), Long.parseLong(params[4])));
+            }
+        }
+        return packed;
+    }
+
+    private void rotateIfDue() throws IOException {
+        if (System.currentTimeMillis() - generationStartMillis < intervalMillis) {
+            return;
+        }
+        openGeneration(LocalDateTime.now().format(GENERATION_FORMAT));
+        Main.addLog("Info: snapshot generation " + currentGeneration);
+        prune();
+    }
+
+    private void openGeneration(String generation) throws IOException {
+        currentGeneration = generation;
+        generationStartMillis = startMillisOf(generation);
+        preserved = new DestinationIndex(baseDestination);
+
+        // Ao reiniciar no meio de uma geração, o que ela já guardou continua valendo
+        Path generationRoot = snapshotsRoot.resolve(generation);
+        if (Files.exists(generationRoot)) {
+            forEachFile(generationRoot, relative -> preserved.update(baseDestination.resolve(relative), 0));
+            for (String key : readPacked(generationRoot).keySet()) {
+                preserved.update(baseDestination.resolve(key), 0);
+            }
+        }
+    }
+
+    // Aplica a retenção. A geração atual nunca é removida.
+    public synchronized void prune() throws IOException {
+        List<String> generations = generations(snapshotsRoot);
+        Set<String> keep = retained(generations, LocalDateTime.now());
+        keep.add(currentGeneration);
+
+        String previousKept = null;
+        for (String generation : generations) {
+            if (keep.contains(generation)) {
+                previousKept = generation;
+                continue;
+            }
+            if (previousKept != null) {
+                mergeInto(generation, previousKept);
+            }
+            deleteTree(snapshotsRoot.resolve(generation));
+            Main.addLog("Info: snapshot generation removed " + generation + (previousKept == null ? "" : " merged into " + previousKept));
+        }
+    }
+
+    Set<String> retained(List<String> generations, LocalDateTime now) {
+        Set<String> keep = new HashSet<>();
+        Set<String> weeks = new HashSet<>();
+        Set<String> months = new HashSet<>();
+        for (String generation : generations) {
+            LocalDateTime start = LocalDateTime.parse(generation, GENERATION_FORMAT);
+            String week = start.get(IsoFields.WEEK_BASED_YEAR) + "-" + start.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR);
+            String month = start.getYear() + "-" + start.getMonthValue();
+
+            if (!start.isBefore(now.minusDays(keepDays))) {
+                keep.add(generation);
+            }
+            // A primeira geração de cada semana/mês (a lista vem em ordem)
+            if (weeks.add(week) && ChronoUnit.WEEKS.between(start, now) < keepWeeks) {
+                keep.add(generation);
+            }
+            if (months.add(month) && ChronoUnit.MONTHS.between(start.withDayOfMonth(1), now) < keepMonths) {
+                keep.add(generation);
+            }
+        }
+        return keep;
+    }
+
+    // Arquivos de from que into não tem passam para into (rename, sem copiar dados)
+    private void mergeInto(String from, String into) throws IOException {
+        Path fromRoot = snapshotsRoot.resolve(from);
+        Path intoRoot = snapshotsRoot.resolve(into);
+
+        forEachFile(fromRoot, relative -> {
+            Path target = intoRoot.resolve(relative);
+            if (Files.notExists(target)) {
+                Files.createDirectories(target.getParent());
+                Files.move(fromRoot.resolve(relative), target);
+            }
+        });
+
+        Map<String, SegmentStore.Location> intoPacked = readPacked(intoRoot);
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, SegmentStore.Location> entry : readPacked(fromRoot).entrySet()) {
+            if (!intoPacked.containsKey(entry.getKey())) {
+                lines.add(packedLine(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!lines.isEmpty()) {
+            Files.createDirectories(intoRoot);
+            Files.write(intoRoot.resolve(PACKED_INDEX), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    // Início da geração que contém at (o estado é reconstruído nesse ponto); sem geração anterior a at, a mais antiga
+    static String generationAt(List<String> generations, Instant at) {
+        String found = generations.isEmpty() ? null : generations.get(0);
+        for (String generation : generations) {
+            if (startMillisOf(generation) <= at.toEpochMilli()) {
+                found = generation;
+            }
+        }
+        return found;
+    }
+
+    interface RelativeFileConsumer {
+        void accept(Path relative) throws IOException;
+    }
+
+    // Arquivos de uma geração, relativos à raiz dela (o packed.txt fica de fora)
+    static void forEachFile(Path generationRoot, RelativeFileConsumer consumer) throws IOException {
+        Files.walkFileTree(generationRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = generationRoot.relativize(file);
+                if (attrs.isRegularFile() && !relative.toString().equals(PACKED_INDEX)) {
+                    consumer.accept(relative);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
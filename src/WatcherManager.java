@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Controla os registros do WatchService.
+// Guarda WatchKey -> pasta e pasta -> WatchKey em mapas concorrentes, cancela as chaves
+// quando uma pasta some e, quando o sistema perde eventos (OVERFLOW ou chave inválida), faz
+// uma nova varredura só da árvore afetada.
+// Um registro recusado (ex: limite de watches do inotify) não é repetido, porque falharia de novo:
+// a pasta fica sem watcher, entra na contagem de failedRegistrations e as mudanças nela só
+// são copiadas pela reconciliação periódica.
+// Pastas excluídas pelo PathFilter não são registradas nem percorridas.
+public class WatcherManager {
+
+    private final WatchService watchService;
+    private final PathFilter pathFilter;
+    private final Map<WatchKey, Path> keyDirectoryMap = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> directoryKeyMap = new ConcurrentHashMap<>();
+    private final Set<Path> pendingRescans = ConcurrentHashMap.newKeySet();
+    private final ExecutorService rescanExecutor;
+    private final AtomicLong failedRegistrations = new AtomicLong();
+    private final AtomicLong rescans = new AtomicLong();
+
+    public WatcherManager(WatchService watchService, PathFilter pathFilter) {
+        this.watchService = watchService;
+        this.pathFilter = pathFilter;
+        this.rescanExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "watch-rescan");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public WatchService getWatchService() {
+        return watchService;
+    }
+
+    public Path directoryOf(WatchKey key) {
+        return keyDirectoryMap.get(key);
+    }
+
+    public boolean isWatched(Path directory) {
+        return directoryKeyMap.containsKey(directory);
+    }
+
+    public int size() {
+        return directoryKeyMap.size();
+    }
+
+    public long failedRegistrations() {
+        return failedRegistrations.get();
+    }
+
+    public long rescans() {
+        return rescans.get();
+    }
+
+    public Collection<Path> directories() {
+        return directoryKeyMap.keySet();
+    }
+
+    // Registra uma pasta. Retorna false se o sistema recusou (ex: limite de watches do inotify).
+    public boolean register(Path directory) {
+        if (directoryKeyMap.containsKey(directory)) {
+            return true;
+        }
+
+        try {
+            WatchKey key = directory.register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            keyDirectoryMap.put(key, directory);
+            directoryKeyMap.put(directory, key);
+            return true;
+        } catch (IOException e) {
+            if (failedRegistrations.incrementAndGet() % 1000 == 1) {
+                Main.addLog("Error: watcher register " + directory + " " + e + " (failed " + failedRegistrations.get() + ")");
+            }
+            return false;
+        }
+    }
+
+    // Registra a pasta e todas as subpastas (todos os níveis)
+    public void registerTree(Path root) {
+        rescan(root, null);
+    }
+
+    // Cancela a pasta e tudo que estava registrado abaixo dela
+    public void unregisterTree(Path directory) {
+        for (Map.Entry<Path, WatchKey> entry : directoryKeyMap.entrySet()) {
+            if (entry.getKey().startsWith(directory)) {
+                entry.getValue().cancel();
+                keyDirectoryMap.remove(entry.getValue());
+                directoryKeyMap.remove(entry.getKey());
+            }
+        }
+    }
+
+    // Chave que deixou de ser válida (reset() retornou false): a pasta foi apagada ou ficou inacessível
+    public void invalidate(WatchKey key, Consumer<Path> fileVisitor) {
+        Path directory = keyDirectoryMap.remove(key);
+        if (directory == null) {
+            return;
+        }
+        directoryKeyMap.remove(directory, key);
+
+        if (Files.isDirectory(directory)) {
+            // Ainda existe: registra de novo e procura o que pode ter mudado nesse meio tempo
+            scheduleRescan(directory, fileVisitor);
+        } else {
+            unregisterTree(directory);
+        }
+    }
+
+    // Varredura incremental em segundo plano. Pedidos repetidos para a mesma pasta
+    // enquanto a anterior ainda não rodou são descartados.
+    public void scheduleRescan(Path directory, Consumer<Path> fileVisitor) {
+        if (!pendingRescans.add(directory)) {
+            return;
+        }
+
+        rescanExecutor.execute(() -> {
+            pendingRescans.remove(directory);
+            rescans.incrementAndGet();
+            Main.addLog("Info: watcher rescan " + directory);
+            rescan(directory, fileVisitor);
+        });
+    }
+
+    public void shutdown() {
+        rescanExecutor.shutdownNow();
+        try {
+            rescanExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            watchService.close();
+        } catch (Exception e) {
+            Main.addLog("Error: watcher shutdown " + e);
+        }
+    }
+
+    // Percorre a árvore registrando as pastas novas; cada arquivo vai para o fileVisitor (se houver)
+    private void rescan(Path root, Consumer<Path> fileVisitor) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!pathFilter.acceptsDirectory(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (fileVisitor != null && attrs.isRegularFile() && pathFilter.acceptsFile(file, attrs)) {
+                        fileVisitor.accept(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Main.addLog("Error: watcher rescan " + file + " " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Main.addLog("Error: watcher rescan " + root + " " + e);
+        }
+    }
+}
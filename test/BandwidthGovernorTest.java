@@ -0,0 +1,82 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ritmo do token bucket, burst guardado e a conta depois de muito tempo parado.
+// O tempo é passado para reserve, então nada aqui espera de verdade (só a taxa medida).
+public class BandwidthGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // Mesmo limite dentro e fora do horário comercial: o resultado não depende da hora do teste
+    private static BandwidthGovernor governor(long bytesPerSecond, long burstMillis) {
+        return new BandwidthGovernor(bytesPerSecond, bytesPerSecond, 8, 18, burstMillis);
+    }
+
+    @Test
+    void pacesRequestsAtTheConfiguredRate() {
+        BandwidthGovernor governor = governor(1000, 1000);
+        long start = System.nanoTime();
+
+        assertEquals(0, governor.reserve(1000, start));
+        // O balde começa vazio: quem vem depois espera o segundo que os 1000 bytes ocuparam
+        assertEquals(SECOND, governor.reserve(500, start));
+        assertEquals(SECOND, governor.reserve(500, start + SECOND / 2));
+        assertEquals(SECOND, governor.reserve(1, start + SECOND));
+    }
+
+    @Test
+    void idleTimeFillsTheBucketUpToTheBurst() {
+        BandwidthGovernor governor = governor(1000, 1000);
+        long start = System.nanoTime();
+        governor.reserve(0, start);
+
+        // 10 s parado só guardam 1 s (burstMillis) de bytes
+        long later = start + 10 * SECOND;
+        assertEquals(0, governor.reserve(1000, later));
+        assertEquals(0, governor.reserve(1000, later));
+        assertEquals(SECOND, governor.reserve(1000, later));
+    }
+
+    @Test
+    void longIdleDoesNotOverflowTheRefill() {
+        long rate = 20L * 1024 * 1024;
+        BandwidthGovernor governor = governor(rate, 1000);
+        long start = System.nanoTime();
+        governor.reserve(0, start);
+
+        // (tempo parado em ns) * taxa passa de Long.MAX_VALUE depois de ~7 minutos a 20 MB/s
+        for (long idle : new long[]{TimeUnit.MINUTES.toNanos(10), TimeUnit.DAYS.toNanos(1), TimeUnit.DAYS.toNanos(400)}) {
+            long now = start + idle;
+            assertEquals(0, governor.reserve(rate, now));
+            assertEquals(0, governor.reserve(rate, now));
+            long wait = governor.reserve(rate, now);
+            assertTrue(Math.abs(wait - SECOND) < 1000, "wait " + wait);
+            start = now + 2 * SECOND;
+            governor.reserve(0, start);
+        }
+    }
+
+    @Test
+    void unlimitedNeverWaits() {
+        BandwidthGovernor governor = governor(0, 1000);
+        assertTrue(governor.isUnlimited());
+        long now = System.nanoTime();
+        assertEquals(0, governor.reserve(Long.MAX_VALUE / 2, now));
+        assertEquals(0, governor.reserve(Long.MAX_VALUE / 2, now));
+    }
+
+    @Test
+    void recordCountsInTheMeasuredRate() throws Exception {
+        BandwidthGovernor governor = governor(0, 1000);
+        governor.record(1_000_000);
+        Thread.sleep(1100);
+        governor.record(0); // fecha a janela de 1 s
+
+        long measured = governor.measuredRate();
+        assertTrue(measured > 500_000 && measured <= 1_000_000, "measured " + measured);
+    }
+}
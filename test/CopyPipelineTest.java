@@ -0,0 +1,107 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ordem da fila por prazo e a vaga que sempre sobra para arquivos pequenos
+public class CopyPipelineTest {
+
+    private static final long LARGE = 64L * 1024 * 1024;
+    private static final String DESTINATION = "\\\\nas\\backup";
+
+    private static void await(CountDownLatch latch) throws InterruptedException {
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private static void waitForActive(CopyPipeline pipeline, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pipeline.activeJobs() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, pipeline.activeJobs());
+    }
+
+    @Test
+    void smallJobStartsWhileLargeJobsSaturateTheDestination() throws Exception {
+        CopyPipeline pipeline = new CopyPipeline(8, 100, 4);
+        CountDownLatch releaseLarge = new CountDownLatch(1);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < 20; i++) {
+            pipeline.submit(DESTINATION, "large " + i, now, LARGE, 1, () -> await(releaseLarge));
+        }
+        // Grandes no mesmo destino ficam em perDestinationLimit - 1; o resto espera na fila, não num worker
+        waitForActive(pipeline, 3);
+        assertEquals(17, pipeline.pendingJobs());
+
+        CountDownLatch smallStarted = new CountDownLatch(1);
+        pipeline.submit(DESTINATION, "small", now, 10 * 1024, 1, smallStarted::countDown);
+        assertTrue(smallStarted.await(5, TimeUnit.SECONDS), "small job did not start behind the large ones");
+
+        releaseLarge.countDown();
+        pipeline.shutdown(10);
+        assertEquals(0, pipeline.pendingJobs());
+        assertEquals(0, pipeline.activeJobs());
+    }
+
+    @Test
+    void largeJobsLeaveOneWorkerFree() throws Exception {
+        CopyPipeline pipeline = new CopyPipeline(3, 100, 10);
+        CountDownLatch releaseLarge = new CountDownLatch(1);
+        long now = System.currentTimeMillis();
+
+        // Cada grande num destino diferente: quem limita é o número de workers
+        for (int i = 0; i < 5; i++) {
+            pipeline.submit("destination" + i, "large " + i, now, LARGE, 1, () -> await(releaseLarge));
+        }
+        waitForActive(pipeline, 2);
+
+        CountDownLatch smallStarted = new CountDownLatch(1);
+        pipeline.submit("destination0", "small", now, 1, 1, smallStarted::countDown);
+        assertTrue(smallStarted.await(5, TimeUnit.SECONDS));
+
+        releaseLarge.countDown();
+        pipeline.shutdown(10);
+    }
+
+    @Test
+    void runsJobsByVirtualDeadline() throws Exception {
+        CopyPipeline pipeline = new CopyPipeline(1, 100, 1, 1024 * 1024, TimeUnit.MINUTES.toMillis(30), Long.MAX_VALUE);
+        CountDownLatch blockerRunning = new CountDownLatch(1);
+        CountDownLatch releaseBlocker = new CountDownLatch(1);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        long now = System.currentTimeMillis();
+
+        pipeline.submit(DESTINATION, "blocker", now, 0, 1, () -> {
+            blockerRunning.countDown();
+            await(releaseBlocker);
+        });
+        await(blockerRunning);
+
+        // 10 MB a 1 MB/s = 10 s de penalidade; com peso 10 cai para 1 s
+        pipeline.submit(DESTINATION, "big", now, 10L * 1024 * 1024, 1, () -> order.add("big"));
+        pipeline.submit(DESTINATION, "recent", now + 5000, 0, 1, () -> order.add("recent"));
+        pipeline.submit(DESTINATION, "weighted", now, 10L * 1024 * 1024, 10, () -> order.add("weighted"));
+        pipeline.submit(DESTINATION, "old", now - 5000, 0, 1, () -> order.add("old"));
+        pipeline.submit(DESTINATION, "same deadline, later", now - 5000, 0, 1, () -> order.add("same deadline, later"));
+
+        releaseBlocker.countDown();
+        pipeline.shutdown(10);
+        assertEquals(List.of("old", "same deadline, later", "weighted", "recent", "big"), order);
+    }
+
+    @Test
+    void sizeDelayIsCapped() {
+        CopyPipeline pipeline = new CopyPipeline(1, 10, 1, 1024, 60_000, LARGE);
+        assertEquals(0, pipeline.sizeDelayMillis(0));
+        assertEquals(2000, pipeline.sizeDelayMillis(2048));
+        assertEquals(60_000, pipeline.sizeDelayMillis(Long.MAX_VALUE / 1000));
+        pipeline.shutdown(1);
+    }
+}
@@ -0,0 +1,100 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Ida e volta do formato binário: grava, marca apagado, cresce (várias gerações) e reabre
+public class PathControlCatalogTest {
+
+    private static final int FILES = 5000; // passa várias vezes da capacidade inicial (1024 registros)
+
+    @TempDir
+    Path directory;
+
+    private static Path source(int i) {
+        return Path.of("/origem", "pasta" + (i % 37), "arquivo" + i + ".txt");
+    }
+
+    private static Path destination(int i) {
+        return Path.of("/destino", "origem", "pasta" + (i % 37), "arquivo" + i + ".txt");
+    }
+
+    @Test
+    void putTombstoneGrowAndReopen() throws Exception {
+        Path arquivePath = directory.resolve("PathControl.bin");
+        Instant timestamp = Instant.parse("2024-05-10T14:30:00.123456789Z");
+
+        PathControlCatalog catalog = PathControlCatalog.load(arquivePath);
+        for (int i = 0; i < FILES; i++) {
+            catalog.put(source(i), destination(i), timestamp.plusSeconds(i), i % 2 == 0 ? i : -1);
+        }
+        for (int i = 0; i < FILES; i += 10) {
+            catalog.markDeleted(source(i), timestamp.plusSeconds(FILES + i));
+        }
+        catalog.updateTimestamp(source(1), timestamp, 77);
+        catalog.close();
+
+        // O catálogo cresceu para outra geração, apontada pelo .current; as antigas foram apagadas
+        assertTrue(Files.exists(directory.resolve("PathControl.bin.current")));
+        assertFalse(Files.exists(arquivePath));
+        assertTrue(PathControlCatalog.exists(arquivePath));
+
+        PathControlCatalog reopened = PathControlCatalog.load(arquivePath);
+        assertEquals(FILES, reopened.size());
+        for (int i = 0; i < FILES; i++) {
+            PathControlCatalog.Entry entry = reopened.get(source(i));
+            assertEquals(source(i).toString(), entry.source());
+            assertEquals(destination(i).toString(), entry.destination());
+            assertEquals(i % 10 == 0, entry.deleted());
+            if (i == 1) {
+                assertEquals(timestamp, entry.timestamp());
+                assertEquals(77, entry.checksum());
+            } else {
+                assertEquals(timestamp.plusSeconds(i % 10 == 0 ? FILES + i : i), entry.timestamp());
+                assertEquals(i % 2 == 0 ? i : -1, entry.checksum());
+            }
+        }
+        assertNull(reopened.get(Path.of("/origem/nao-existe.txt")));
+
+        List<PathControlCatalog.Entry> active = reopened.entriesUnder(Path.of("/origem", "pasta0"));
+        List<PathControlCatalog.Entry> all = reopened.entriesUnder(Path.of("/origem", "pasta0"), true);
+        assertTrue(active.stream().noneMatch(PathControlCatalog.Entry::deleted));
+        assertEquals(all.stream().filter(entry -> !entry.deleted()).count(), active.size());
+        assertTrue(all.size() > active.size());
+
+        // Continua gravando depois de reabrir
+        reopened.put(source(FILES), destination(FILES), timestamp, -1);
+        reopened.close();
+        PathControlCatalog last = PathControlCatalog.load(arquivePath);
+        assertEquals(FILES + 1, last.size());
+        last.close();
+    }
+
+    @Test
+    void migrateFromText() throws Exception {
+        Path textPath = directory.resolve("PathControl.txt");
+        Files.write(textPath, List.of(
+                "/origem/a.txt|/destino/a.txt|2024-01-01T00:00:00Z",
+                "/origem/b.txt|/destino/b.txt|2024-01-02T00:00:00Z|DELETED",
+                "linha inválida"));
+        Path arquivePath = directory.resolve("PathControl.bin");
+
+        assertFalse(PathControlCatalog.exists(arquivePath));
+        assertEquals(2, PathControlCatalog.migrate(textPath, arquivePath));
+        assertTrue(PathControlCatalog.exists(arquivePath));
+
+        PathControlCatalog catalog = PathControlCatalog.load(arquivePath);
+        assertEquals(2, catalog.size());
+        assertFalse(catalog.get(Path.of("/origem/a.txt")).deleted());
+        assertTrue(catalog.get(Path.of("/origem/b.txt")).deleted());
+        catalog.close();
+    }
+}
@@ -0,0 +1,144 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Compilação dos globs (nome, extensão, prefixo, caminho) e precedência entre exclude e include
+public class PathFilterTest {
+
+    private static final Path ROOT = Path.of("/origem");
+    private static final Path OTHER_ROOT = Path.of("/outra");
+
+    private static PathFilter filter(String... rules) {
+        return PathFilter.parse(List.of(rules), List.of(ROOT.toString(), OTHER_ROOT.toString()));
+    }
+
+    private static boolean file(PathFilter filter, String relative) {
+        return filter.acceptsPath(ROOT.resolve(relative));
+    }
+
+    private static boolean directory(PathFilter filter, String relative) {
+        return filter.acceptsDirectory(ROOT.resolve(relative));
+    }
+
+    @Test
+    void defaultRules() {
+        PathFilter filter = PathFilter.parse(PathFilter.DEFAULT_RULES, List.of(ROOT.toString()));
+        assertFalse(file(filter, "docs/~$relatorio.docx"));
+        assertFalse(file(filter, "docs/RASCUNHO.TMP"));
+        assertFalse(file(filter, "db/base.lock"));
+        assertFalse(file(filter, "fotos/thumbs.db"));
+        assertTrue(file(filter, "docs/relatorio.docx"));
+        assertTrue(file(filter, "docs/relatorio.tmp.docx"));
+        assertTrue(file(filter, "thumbs.db.bak"));
+    }
+
+    @Test
+    void globsByNameExtensionPrefixAndPath() {
+        PathFilter filter = filter(
+                "exclude node_modules",
+                "exclude *.tar.gz",
+                "exclude cache-*",
+                "exclude rel?.txt",
+                "exclude projetos/**/bin",
+                "exclude [ab]*.log");
+
+        // Nome exato em qualquer nível; a pasta é podada
+        assertFalse(directory(filter, "web/node_modules"));
+        assertFalse(directory(filter, "node_modules"));
+        assertTrue(directory(filter, "web/node_modules2"));
+
+        // Extensão com ponto vira regex, não entra no conjunto de extensões simples
+        assertFalse(file(filter, "backup/dados.tar.gz"));
+        assertTrue(file(filter, "backup/dados.gz"));
+
+        assertFalse(file(filter, "tmp/cache-01"));
+        assertTrue(file(filter, "tmp/meu-cache-01"));
+
+        assertFalse(file(filter, "a/rel1.txt"));
+        assertTrue(file(filter, "a/rel10.txt"));
+
+        // Com "/" compara com o caminho relativo inteiro; ** atravessa pastas (inclusive nenhuma)
+        assertFalse(directory(filter, "projetos/bin"));
+        assertFalse(directory(filter, "projetos/app/x/bin"));
+        assertTrue(directory(filter, "outros/app/bin"));
+
+        assertFalse(file(filter, "logs/a1.log"));
+        assertTrue(file(filter, "logs/c1.log"));
+    }
+
+    @Test
+    void includeWinsOverExclude() {
+        PathFilter filter = filter("exclude *.bak", "include importante.bak");
+        assertFalse(file(filter, "x/velho.bak"));
+        assertTrue(file(filter, "x/importante.bak"));
+    }
+
+    @Test
+    void includeReachesFilesBelowExcludedDirectories() {
+        PathFilter filter = filter("exclude *", "include *.docx");
+
+        // A pasta continua sendo percorrida porque um .docx pode estar em qualquer nível
+        assertTrue(directory(filter, "projetos"));
+        assertTrue(directory(filter, "projetos/2024"));
+        assertTrue(file(filter, "projetos/2024/contrato.docx"));
+        assertFalse(file(filter, "projetos/2024/planilha.xlsx"));
+        assertFalse(file(filter, "leiame.txt"));
+    }
+
+    @Test
+    void filesInsideAnExcludedDirectoryStayExcludedWhenIncludesExist() {
+        PathFilter filter = filter("exclude node_modules", "include *.docx");
+        assertTrue(directory(filter, "web/node_modules"));
+        assertFalse(file(filter, "web/node_modules/lib/index.js"));
+        assertTrue(file(filter, "web/node_modules/leiame.docx"));
+        assertTrue(file(filter, "web/src/index.js"));
+    }
+
+    @Test
+    void regexRulesAreCaseInsensitive() {
+        PathFilter filter = filter("excludeRegex .*/build-\\d+/.*");
+        assertFalse(file(filter, "app/BUILD-42/saida.bin"));
+        assertTrue(file(filter, "app/build-x/saida.bin"));
+    }
+
+    @Test
+    void sizeAgeAndSourceSections() {
+        PathFilter filter = filter(
+                "maxSize 1K",
+                "[" + OTHER_ROOT + "]",
+                "exclude *.iso",
+                "maxAgeDays 30");
+        long now = System.currentTimeMillis();
+        long old = now - TimeUnit.DAYS.toMillis(31);
+        Path relative = Path.of("imagem.iso");
+
+        assertTrue(filter.acceptsRelativeFile(ROOT, relative, 1024, old));
+        assertFalse(filter.acceptsRelativeFile(ROOT, relative, 1025, now));
+
+        // A seção soma às globais e só vale para a própria origem
+        assertFalse(filter.acceptsRelativeFile(OTHER_ROOT, relative, 10, now));
+        assertFalse(filter.acceptsRelativeFile(OTHER_ROOT, Path.of("a.txt"), 10, old));
+        assertFalse(filter.acceptsRelativeFile(OTHER_ROOT, Path.of("a.txt"), 2048, now));
+        assertTrue(filter.acceptsRelativeFile(OTHER_ROOT, Path.of("a.txt"), 10, now));
+    }
+
+    @Test
+    void pathsOutsideTheSourcesAndTheRootsAreAccepted() {
+        PathFilter filter = filter("exclude *");
+        assertTrue(filter.acceptsPath(Path.of("/em/outro/lugar.txt")));
+        assertTrue(filter.acceptsDirectory(ROOT));
+        assertFalse(directory(filter, "qualquer"));
+    }
+
+    @Test
+    void invalidRulesAreSkipped() {
+        PathFilter filter = filter("exclude", "excludeRegex [", "maxSize muito", "desconhecida x", "exclude *.tmp");
+        assertFalse(file(filter, "a.tmp"));
+        assertTrue(file(filter, "a.txt"));
+    }
+}